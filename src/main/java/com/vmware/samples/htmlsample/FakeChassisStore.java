@@ -3,8 +3,46 @@
 package com.vmware.samples.htmlsample;
 
 import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisChange;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import com.vmware.samples.htmlsample.model.ChassisOperation;
+import com.vmware.samples.htmlsample.model.ChassisOperationResult;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
+import com.vmware.samples.htmlsample.store.ChassisChangeLog;
+import com.vmware.samples.htmlsample.store.ChassisHostIndex;
+import com.vmware.samples.htmlsample.store.ChassisIndex;
+import com.vmware.samples.htmlsample.store.ChassisJournal;
+import com.vmware.samples.htmlsample.store.ChassisRecord;
+import com.vmware.samples.htmlsample.store.ChassisSnapshot;
+import com.vmware.samples.htmlsample.store.ChassisTable;
+import com.vmware.samples.htmlsample.store.CompactChassisTable;
+import com.vmware.samples.htmlsample.store.HashChassisTable;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Simplified fake data store for the Chassis objects, and related utilities.
@@ -16,8 +54,28 @@ import java.util.*;
  * server must remain stateless and be able to scale out.                        *
  * ***************************************************************************** *
  *
- * Note that this class is thread-safe but doesn't deal with complex operations
- * or large data sets. It is not intended to be used as-is!
+ * Note that this class is thread-safe: objects are kept in a concurrent map and
+ * name uniqueness is guaranteed by a secondary name index, so create/update
+ * never scan the whole store. It is still not intended to be used as-is!
+ *
+ * When a journal directory is configured the store is persistent: every
+ * mutation is written to a {@link ChassisJournal} before it becomes visible,
+ * the journal is periodically checkpointed into a snapshot file, and init()
+ * recovers the previous content instead of reseeding it.
+ *
+ * Readers of the whole store share an immutable {@link ChassisSnapshot}. Each
+ * committed mutation is appended to a {@link ChassisChangeLog} which bumps the
+ * store version, and the first reader that finds the snapshot outdated
+ * publishes a new one. The change log also serves deltas and change events.
+ * Filtered, sorted and paged listings are served by a {@link ChassisIndex}
+ * maintained on every mutation, and the hosts of each chassis by a
+ * {@link ChassisHostIndex}. The host bindings are journaled and checkpointed
+ * like the chassis objects.
+ *
+ * The objects themselves are kept in a {@link ChassisTable}: the "object"
+ * storage engine keeps the chassis objects as they are, the "compact" one keeps
+ * dictionary-encoded columns and only materializes chassis objects when they
+ * are read.
  */
 public class FakeChassisStore {
    // Default number of pre-defined chassis objects is 4.
@@ -28,21 +86,127 @@ public class FakeChassisStore {
    private static final String CHASSIS_SERVER_TYPE = "Server_Type %s";
    private static final String CHASSIS_DIMENSIONS = "20in x 30in x 17in";
 
+   // Number of locks used to serialize mutations of the same chassis id.
+   private static final int LOCK_STRIPES = 64;
+   private static final int DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 60;
+   private static final int DEFAULT_CHANGE_LOG_CAPACITY = 4096;
+
+   // Storage engines, see setStorageEngine().
+   private static final String OBJECT_STORAGE_ENGINE = "object";
+   private static final String COMPACT_STORAGE_ENGINE = "compact";
+
+   // Batch operation errors
+   private static final String BATCH_UNKNOWN_OP_MSG =
+         "Unknown operation, expected create, update, delete or restore.";
+   private static final String BATCH_MISSING_CHASSIS_MSG =
+         "The operation requires a chassis with a name (and an id for update and restore).";
+   private static final String BATCH_MISSING_ID_MSG =
+         "The delete operation requires an id.";
+   private static final String BATCH_NAME_EXISTS_MSG =
+         "Chassis object with the name '%s' already exists.";
+   private static final String BATCH_DOES_NOT_EXIST_MSG =
+         "Chassis object with the ID '%s' does not exist.";
+   private static final String BATCH_ID_EXISTS_MSG =
+         "Chassis object with the ID '%s' already exists.";
+
+   private static final Log _logger = LogFactory.getLog(FakeChassisStore.class);
+
    // Internal index used to create unique ids.
-   private static int _index = 0;
+   private static final AtomicInteger _index = new AtomicInteger();
+
+   // Table of chassis objects used in the sample.
+   // The key is a chassis object's id.
+   private ChassisTable _fakeStore;
+
+   // Secondary index which owns the chassis names.
+   // The key is a chassis object's name and the value is the chassis id.
+   private ConcurrentMap<String, String> _nameIndex;
 
-   // Map of chassis objects used in the sample.
-   // The key is a chassis object's id and the value is the chassis object.
-   private Map<String, Chassis> _fakeStore;
+   // Sorted indexes used by the filtered and paged listings.
+   private ChassisIndex _chassisIndex;
+
+   // Hosts bound to each chassis, dropped with the chassis.
+   private final ChassisHostIndex _hostIndex = new ChassisHostIndex();
+
+   // Versioned log of the latest committed mutations.
+   private ChassisChangeLog _changeLog;
+   private int _changeLogCapacity = DEFAULT_CHANGE_LOG_CAPACITY;
+
+   // Latest published snapshot, guarded by its own monitor for republishing.
+   private volatile ChassisSnapshot _snapshot = ChassisSnapshot.EMPTY;
+   private final Object _snapshotLock = new Object();
+
+   // Mutations of one chassis id are serialized on one of these locks so that
+   // the journal order matches the order in which changes become visible.
+   private final Lock[] _stripes = new Lock[LOCK_STRIPES];
+
+   // Mutations hold the read lock while they are journaled and applied,
+   // a checkpoint takes the write lock to rotate the log at a consistent point.
+   private final ReadWriteLock _checkpointLock = new ReentrantReadWriteLock();
+
+   // Persistence settings, set through bean properties in bundle-context.xml.
+   private String _journalDirectory;
+   private int _checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+   private String _storageEngine = OBJECT_STORAGE_ENGINE;
+
+   // Null when the store is in-memory only.
+   private ChassisJournal _journal;
+   private ScheduledExecutorService _checkpointExecutor;
+
+   public FakeChassisStore() {
+      for (int i = 0; i < LOCK_STRIPES; i++) {
+         _stripes[i] = new ReentrantLock();
+      }
+   }
+
+   /**
+    * @param journalDirectory directory of the write-ahead log and snapshots,
+    *                         the store is in-memory only if null or empty.
+    */
+   public void setJournalDirectory(String journalDirectory) {
+      _journalDirectory = journalDirectory;
+   }
+
+   /**
+    * @param checkpointIntervalSeconds interval between two snapshots of a
+    *                                  persistent store.
+    */
+   public void setCheckpointIntervalSeconds(int checkpointIntervalSeconds) {
+      _checkpointIntervalSeconds = checkpointIntervalSeconds;
+   }
+
+   /**
+    * @param storageEngine "object" to keep the chassis objects as they are, or
+    *                      "compact" to keep dictionary-encoded columns.
+    */
+   public void setStorageEngine(String storageEngine) {
+      _storageEngine = storageEngine;
+   }
+
+   /**
+    * @param changeLogCapacity number of recent changes kept for delta requests.
+    */
+   public void setChangeLogCapacity(int changeLogCapacity) {
+      _changeLogCapacity = changeLogCapacity;
+   }
 
    /**
-    * Initializes the fake in-memory store with 4 chassis objects.
+    * Initializes the fake store. A persistent store recovers its previous content,
+    * an empty store is seeded with 4 chassis objects.
     * This bean init method is defined in bundle-context.xml.
     */
    public void init() {
-      Map<String, Chassis> store =
-              new HashMap<String, Chassis>(CHASSIS_INITIAL_COUNT);
-      _fakeStore = Collections.synchronizedMap(store);
+      _fakeStore = createTable();
+      _chassisIndex = new ChassisIndex(_fakeStore);
+      _nameIndex = new ConcurrentHashMap<String, String>(CHASSIS_INITIAL_COUNT);
+      _changeLog = new ChassisChangeLog(_changeLogCapacity);
+
+      if (_journalDirectory != null && !_journalDirectory.trim().isEmpty()) {
+         openJournal(new File(_journalDirectory.trim()));
+      }
+      if (_fakeStore.size() > 0) {
+         return;
+      }
 
       // Create an initial set of chassis objects.
       for (int i = 0; i < CHASSIS_INITIAL_COUNT; i++) {
@@ -59,7 +223,29 @@ public class FakeChassisStore {
     * Bean destroy method defined in bundle-context.xml.
     */
    public void destroy() {
+      if (_journal != null) {
+         _checkpointExecutor.shutdownNow();
+         checkpoint(false);
+         try {
+            _journal.close();
+         } catch (IOException e) {
+            _logger.error("Could not close the chassis journal", e);
+         }
+         _journal = null;
+      }
       _fakeStore.clear();
+      _nameIndex.clear();
+      _chassisIndex.clear();
+      _hostIndex.clear();
+      _snapshot = ChassisSnapshot.EMPTY;
+   }
+
+   /**
+    * Writes a snapshot of a persistent store if it changed since the last one,
+    * which makes the older log files obsolete. Does nothing for an in-memory store.
+    */
+   public void checkpoint() {
+      checkpoint(false);
    }
 
    /**
@@ -67,10 +253,74 @@ public class FakeChassisStore {
     * NOTE: A real implementation should retrieve objects
     * data from a plugin back-end server.
     *
-    * @return  a list of chassis objects.
+    * @return  an unmodifiable list of chassis objects, shared between callers.
     */
    public List<Chassis> getObjects() {
-      return new ArrayList<Chassis>(_fakeStore.values());
+      return getSnapshot().objects;
+   }
+
+   /**
+    * Retrieves the snapshot of all chassis objects which includes every
+    * mutation committed so far.
+    *
+    * @return  the current snapshot.
+    */
+   public ChassisSnapshot getSnapshot() {
+      ChassisSnapshot snapshot = _snapshot;
+      long version = _changeLog.lastVersion();
+      if (snapshot.version == version) {
+         return snapshot;
+      }
+      synchronized (_snapshotLock) {
+         snapshot = _snapshot;
+         version = _changeLog.lastVersion();
+         if (snapshot.version != version) {
+            // The version is read before collecting the values, so the snapshot
+            // holds at least every mutation committed up to that version.
+            snapshot = ChassisSnapshot.of(version, _fakeStore.snapshot());
+            _snapshot = snapshot;
+         }
+         return snapshot;
+      }
+   }
+
+   /**
+    * @return  the version of the last committed change.
+    */
+   public long getVersion() {
+      return _changeLog.lastVersion();
+   }
+
+   /**
+    * Retrieves the changes committed after the given version.
+    *
+    * @param version the last version known by the caller.
+    * @return  the changes, or a reset delta if they are not available anymore.
+    */
+   public ChassisDelta getChangesSince(long version) {
+      return _changeLog.changesSince(version);
+   }
+
+   /**
+    * Registers a listener notified of every group of committed changes.
+    */
+   public void addChangeListener(ChassisChangeLog.Listener listener) {
+      _changeLog.addListener(listener);
+   }
+
+   public void removeChangeListener(ChassisChangeLog.Listener listener) {
+      _changeLog.removeListener(listener);
+   }
+
+   /**
+    * Retrieves one page of the chassis objects matching a query.
+    *
+    * @param query   filter, sort and paging parameters.
+    * @return  the page of chassis objects.
+    * @throws IllegalArgumentException if the query cursor is invalid.
+    */
+   public ChassisPage query(ChassisQuery query) {
+      return _chassisIndex.query(query);
    }
 
    /**
@@ -87,6 +337,62 @@ public class FakeChassisStore {
       return _fakeStore.get(id);
    }
 
+   /**
+    * Checks whether a chassis object exists, without materializing it.
+    *
+    * @param id   the id of the chassis object.
+    * @return  true if a chassis object has the given id.
+    */
+   public boolean containsObject(String id) {
+      return id != null && _fakeStore.containsKey(id);
+   }
+
+   /**
+    * Retrieves the ids of the hosts bound to a chassis object.
+    *
+    * @param id   the id of the chassis object.
+    * @return  the host ids, empty if the chassis has none or does not exist.
+    */
+   public Set<String> getHostIds(String id) {
+      if (id == null) {
+         return Collections.emptySet();
+      }
+      return _hostIndex.getHostIds(id);
+   }
+
+   /**
+    * Replaces the hosts bound to a chassis object. A host belongs to a single
+    * chassis, so hosts bound to another chassis are moved to this one.
+    *
+    * @param id      the id of the chassis object.
+    * @param hostIds the new hosts of the chassis, empty to unbind them all.
+    * @return  true if the hosts were bound, false if the chassis does not exist.
+    */
+   public boolean bindHosts(String id, Collection<String> hostIds) {
+      if (id == null || hostIds == null) {
+         return false;
+      }
+      // Serialized with a delete of the chassis, so no binding outlives it.
+      Lock stripe = stripeFor(id);
+      stripe.lock();
+      _checkpointLock.readLock().lock();
+      try {
+         if (!_fakeStore.containsKey(id)) {
+            return false;
+         }
+         // A binding can move hosts from other chassis, so the bindings are
+         // journaled in the order they are applied.
+         synchronized (_hostIndex) {
+            writeAhead(Collections.singletonList(ChassisRecord.bind(id, hostIds)));
+            _hostIndex.bind(id, hostIds);
+         }
+         return true;
+      } finally {
+         _checkpointLock.readLock().unlock();
+         stripe.unlock();
+      }
+   }
+
    /**
     * Adds a new chassis object to the fake store.
     *
@@ -95,13 +401,24 @@ public class FakeChassisStore {
     *          or null if a chassis object with that name exists.
     */
    public Chassis create(Chassis chassis) {
-      if (chassis == null || !isNameUnique(chassis.name)) {
+      if (chassis == null || chassis.name == null) {
+         return null;
+      }
+
+      // Claim the name first, the index entry is what guarantees uniqueness.
+      String id = generateId();
+      if (!reserveName(chassis.name, id)) {
          return null;
       }
 
       // Add the chassis object to the fake store.
-      chassis.id = generateId();
-      _fakeStore.put(chassis.id, chassis);
+      chassis.id = id;
+      try {
+         commit(Collections.singletonList(ChassisRecord.put(chassis)));
+      } catch (RuntimeException e) {
+         releaseName(chassis.name, id);
+         throw e;
+      }
       return chassis;
    }
 
@@ -113,17 +430,37 @@ public class FakeChassisStore {
     *          or false otherwise.
     */
    public boolean update(Chassis chassis) {
-      if(chassis == null) {
-         return false;
-      }
-      boolean updatingTheSameChassis =
-            chassis.name.equals(_fakeStore.get(chassis.id).name);
-      if (!updatingTheSameChassis && !isNameUnique(chassis.name)) {
+      if (chassis == null || chassis.id == null || chassis.name == null) {
          return false;
       }
+      Lock stripe = stripeFor(chassis.id);
+      stripe.lock();
+      try {
+         Chassis previous = _fakeStore.get(chassis.id);
+         if (previous == null) {
+            return false;
+         }
+         // Succeeds when the name is free or already owned by this chassis.
+         if (!reserveName(chassis.name, chassis.id)) {
+            return false;
+         }
+         boolean renamed = !previous.name.equals(chassis.name);
 
-      Chassis updatedChassis = _fakeStore.put(chassis.id, chassis);
-      return (updatedChassis != null);
+         try {
+            commit(Collections.singletonList(ChassisRecord.put(chassis)));
+         } catch (RuntimeException e) {
+            if (renamed) {
+               releaseName(chassis.name, chassis.id);
+            }
+            throw e;
+         }
+         if (renamed) {
+            releaseName(previous.name, chassis.id);
+         }
+         return true;
+      } finally {
+         stripe.unlock();
+      }
    }
 
    /**
@@ -137,7 +474,266 @@ public class FakeChassisStore {
       if (id == null) {
          return null;
       }
-      return _fakeStore.remove(id);
+      Lock stripe = stripeFor(id);
+      stripe.lock();
+      try {
+         Chassis removed = _fakeStore.get(id);
+         if (removed == null) {
+            return null;
+         }
+         commit(Collections.singletonList(ChassisRecord.delete(id)));
+         releaseName(removed.name, id);
+         return removed;
+      } finally {
+         stripe.unlock();
+      }
+   }
+
+   /**
+    * Applies a batch of create/update/delete/restore operations in order.
+    *
+    * Every operation is validated against the store and the operations before
+    * it in the same batch, so a batch may for instance delete a chassis and
+    * create another one with the same name. Invalid operations are reported and
+    * skipped, the valid ones are journaled together and applied in one pass.
+    *
+    * @param operations the operations to apply.
+    * @return  one result per operation, in the same order.
+    */
+   public List<ChassisOperationResult> applyBatch(List<ChassisOperation> operations) {
+      List<ChassisOperationResult> results = new ArrayList<>(operations.size());
+      BatchState batch = new BatchState(operations.size());
+
+      List<Lock> stripes = stripesFor(operations);
+      for (Lock stripe : stripes) {
+         stripe.lock();
+      }
+      try {
+         for (int i = 0; i < operations.size(); i++) {
+            ChassisOperation operation = operations.get(i);
+            String error = validateOperation(operation);
+            if (error == null) {
+               error = stageOperation(operation, batch);
+            }
+            results.add(error == null
+                  ? ChassisOperationResult.success(i, operationId(operation))
+                  : ChassisOperationResult.failure(i, operationId(operation), error));
+         }
+
+         if (!batch.records.isEmpty()) {
+            try {
+               commit(batch.records);
+            } catch (RuntimeException e) {
+               for (int i = batch.nameChanges.size() - 1; i >= 0; i--) {
+                  batch.nameChanges.get(i).undo(_nameIndex);
+               }
+               throw e;
+            }
+         }
+         // Names given up by the batch and not reused by it are free now.
+         for (Map.Entry<String, String> freed : batch.freedNames.entrySet()) {
+            releaseName(freed.getKey(), freed.getValue());
+         }
+         return results;
+      } finally {
+         for (Lock stripe : stripes) {
+            stripe.unlock();
+         }
+      }
+   }
+
+   /**
+    * Checks the content of a batch operation, without looking at the store.
+    *
+    * @return  an error message, or null if the operation is well formed.
+    */
+   private static String validateOperation(ChassisOperation operation) {
+      if (operation == null || operation.op == null) {
+         return BATCH_UNKNOWN_OP_MSG;
+      }
+      switch (operation.op) {
+         case ChassisOperation.CREATE:
+            return (operation.chassis == null || operation.chassis.name == null)
+                  ? BATCH_MISSING_CHASSIS_MSG : null;
+         case ChassisOperation.UPDATE:
+         case ChassisOperation.RESTORE:
+            return (operation.chassis == null || operation.chassis.name == null
+                  || operation.chassis.id == null) ? BATCH_MISSING_CHASSIS_MSG : null;
+         case ChassisOperation.DELETE:
+            return (operation.id == null) ? BATCH_MISSING_ID_MSG : null;
+         default:
+            return BATCH_UNKNOWN_OP_MSG;
+      }
+   }
+
+   /**
+    * Validates a well formed operation against the state left by the previous
+    * operations of the batch, claims the name it needs and adds its record.
+    *
+    * @return  an error message, or null if the operation was staged.
+    */
+   private String stageOperation(ChassisOperation operation, BatchState batch) {
+      if (ChassisOperation.CREATE.equals(operation.op)) {
+         Chassis chassis = operation.chassis;
+         String id = generateId();
+         if (!claimName(chassis.name, id, batch)) {
+            return String.format(BATCH_NAME_EXISTS_MSG, chassis.name);
+         }
+         chassis.id = id;
+         batch.pending.put(id, chassis);
+         batch.records.add(ChassisRecord.put(chassis));
+         return null;
+      }
+
+      if (ChassisOperation.RESTORE.equals(operation.op)) {
+         Chassis chassis = operation.chassis;
+         String id = chassis.id;
+         // Moved first, so that the counter does not hand out the id from now on.
+         advanceIndexPast(id);
+         boolean exists = batch.pending.containsKey(id)
+               ? batch.pending.get(id) != null : _fakeStore.containsKey(id);
+         if (exists) {
+            return String.format(BATCH_ID_EXISTS_MSG, id);
+         }
+         if (!claimName(chassis.name, id, batch)) {
+            return String.format(BATCH_NAME_EXISTS_MSG, chassis.name);
+         }
+         batch.pending.put(id, chassis);
+         batch.records.add(ChassisRecord.put(chassis));
+         return null;
+      }
+
+      String id = ChassisOperation.UPDATE.equals(operation.op)
+            ? operation.chassis.id : operation.id;
+      Chassis current = batch.pending.containsKey(id)
+            ? batch.pending.get(id) : _fakeStore.get(id);
+      if (current == null) {
+         return String.format(BATCH_DOES_NOT_EXIST_MSG, id);
+      }
+
+      if (ChassisOperation.UPDATE.equals(operation.op)) {
+         Chassis chassis = operation.chassis;
+         if (!current.name.equals(chassis.name)) {
+            if (!claimName(chassis.name, id, batch)) {
+               return String.format(BATCH_NAME_EXISTS_MSG, chassis.name);
+            }
+            batch.freedNames.put(current.name, id);
+         }
+         batch.pending.put(id, chassis);
+         batch.records.add(ChassisRecord.put(chassis));
+      } else {
+         batch.freedNames.put(current.name, id);
+         batch.pending.put(id, null);
+         batch.records.add(ChassisRecord.delete(id));
+      }
+      return null;
+   }
+
+   /**
+    * Claims a name for a chassis id of the batch. A name given up earlier in the
+    * batch is handed over directly in the name index, so it never becomes free
+    * for concurrent callers before the batch is committed.
+    *
+    * @return  true if the name now belongs to the given id.
+    */
+   private boolean claimName(String name, String id, BatchState batch) {
+      String previousOwner = batch.freedNames.remove(name);
+      if (previousOwner != null) {
+         _nameIndex.replace(name, previousOwner, id);
+         batch.nameChanges.add(new NameChange(name, previousOwner, id));
+         return true;
+      }
+      String owner = _nameIndex.putIfAbsent(name, id);
+      if (owner == null) {
+         batch.nameChanges.add(new NameChange(name, null, id));
+         return true;
+      }
+      return owner.equals(id);
+   }
+
+   /**
+    * @return  the locks of the chassis ids updated or deleted by the batch,
+    *          in a fixed order so that concurrent batches cannot deadlock.
+    */
+   private List<Lock> stripesFor(List<ChassisOperation> operations) {
+      Set<Integer> indexes = new TreeSet<>();
+      for (ChassisOperation operation : operations) {
+         String id = operationId(operation);
+         if (id != null && operation.op != null
+               && !ChassisOperation.CREATE.equals(operation.op)) {
+            indexes.add(stripeIndex(id));
+         }
+      }
+      List<Lock> stripes = new ArrayList<>(indexes.size());
+      for (Integer index : indexes) {
+         stripes.add(_stripes[index]);
+      }
+      return stripes;
+   }
+
+   /**
+    * @return  the id targeted by an operation, or null if it has none yet.
+    */
+   private static String operationId(ChassisOperation operation) {
+      if (operation == null) {
+         return null;
+      }
+      if (ChassisOperation.DELETE.equals(operation.op) || operation.chassis == null) {
+         return operation.id;
+      }
+      return operation.chassis.id;
+   }
+
+   /**
+    * Journals a group of records, applies them to the store and its indexes,
+    * and publishes them to the change log.
+    * The caller holds the stripes of the mutated ids.
+    *
+    * @throws IllegalStateException if the journal could not be written, in which
+    *          case nothing was applied.
+    */
+   private void commit(List<ChassisRecord> records) {
+      _checkpointLock.readLock().lock();
+      try {
+         writeAhead(records);
+         List<ChassisChange> changes = new ArrayList<>(records.size());
+         for (ChassisRecord record : records) {
+            Chassis previous = applyRecord(record);
+            if (record.op == ChassisRecord.DELETE) {
+               changes.add(new ChassisChange(ChassisChange.DELETE, record.id, null));
+            } else {
+               changes.add(new ChassisChange(
+                     (previous == null) ? ChassisChange.CREATE : ChassisChange.UPDATE,
+                     record.id, record.chassis));
+            }
+         }
+         _changeLog.append(changes);
+      } finally {
+         _checkpointLock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Applies one record to the id map and the sorted indexes.
+    *
+    * @return  the chassis object which was replaced or removed, or null.
+    */
+   private Chassis applyRecord(ChassisRecord record) {
+      if (record.op == ChassisRecord.PUT) {
+         Chassis previous = _fakeStore.put(record.chassis);
+         if (previous != null) {
+            _chassisIndex.replace(previous, record.chassis);
+         } else {
+            _chassisIndex.add(record.chassis);
+         }
+         return previous;
+      }
+      Chassis removed = _fakeStore.remove(record.id);
+      if (removed != null) {
+         _chassisIndex.remove(removed);
+         _hostIndex.unbind(record.id);
+      }
+      return removed;
    }
 
    /**
@@ -146,23 +742,245 @@ public class FakeChassisStore {
     * @return a chassis object id.
     */
    private static String generateId() {
-      return String.format(CHASSIS_ID, _index++);
+      return String.format(CHASSIS_ID, _index.getAndIncrement());
    }
 
    /**
-    * Validates if the given chassis name is unique.
+    * Moves the id counter forward so that it never hands out a used id again.
     *
-    * @param name the name of a chassis object.
-    * @return  true if the given chassis name is unique, or false otherwise.
+    * @param next the smallest value the counter may have.
+    */
+   private static void advanceIndex(int next) {
+      for (;;) {
+         int current = _index.get();
+         if (current >= next || _index.compareAndSet(current, next)) {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Advances the id counter past a recovered or restored chassis id.
+    */
+   private static void advanceIndexPast(String id) {
+      String prefix = String.format(CHASSIS_ID, "");
+      if (id != null && id.startsWith(prefix)) {
+         try {
+            advanceIndex(Integer.parseInt(id.substring(prefix.length())) + 1);
+         } catch (NumberFormatException e) {
+            // Not a generated id, it cannot collide with the counter.
+         }
+      }
+   }
+
+   /**
+    * @return the lock which serializes the mutations of the given chassis id.
     */
-   private boolean isNameUnique(String name) {
-      synchronized(_fakeStore) {
-         for (Chassis chassis : _fakeStore.values()) {
-            if (name.equals(chassis.name)) {
-               return false;
+   private Lock stripeFor(String id) {
+      return _stripes[stripeIndex(id)];
+   }
+
+   private static int stripeIndex(String id) {
+      return (id.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+   }
+
+   /**
+    * Appends records to the journal of a persistent store, and returns once they
+    * are durable. Does nothing for an in-memory store.
+    *
+    * @throws IllegalStateException if the journal could not be written.
+    */
+   private void writeAhead(List<ChassisRecord> records) {
+      if (_journal == null) {
+         return;
+      }
+      try {
+         _journal.append(records);
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not write the chassis journal", e);
+      }
+   }
+
+   /**
+    * Recovers the store content from the journal directory and schedules the
+    * periodic checkpoints.
+    */
+   private void openJournal(File directory) {
+      ChassisJournal journal = new ChassisJournal(directory);
+      long replayed;
+      try {
+         replayed = journal.recover(new ChassisJournal.Replay() {
+            @Override
+            public void put(Chassis chassis) {
+               Chassis previous = applyRecord(ChassisRecord.put(chassis));
+               if (previous != null) {
+                  _nameIndex.remove(previous.name, chassis.id);
+               }
+               _nameIndex.put(chassis.name, chassis.id);
+               advanceIndexPast(chassis.id);
+            }
+
+            @Override
+            public void delete(String id) {
+               Chassis previous = applyRecord(ChassisRecord.delete(id));
+               if (previous != null) {
+                  _nameIndex.remove(previous.name, id);
+               }
+            }
+
+            @Override
+            public void bind(String id, List<String> hostIds) {
+               _hostIndex.bind(id, hostIds);
+            }
+
+            @Override
+            public void nextIndex(int nextIndex) {
+               advanceIndex(nextIndex);
             }
+         });
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not recover the chassis store from " + directory, e);
+      }
+      _journal = journal;
+      _logger.info(String.format("Recovered %d chassis objects from %s (%d log records)",
+            _fakeStore.size(), directory, replayed));
+
+      if (replayed > 0) {
+         // Fold the replayed log into a snapshot so that the next start is faster.
+         checkpoint(true);
+      }
+
+      _checkpointExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "chassis-store-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      _checkpointExecutor.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            checkpoint(false);
+         }
+      }, _checkpointIntervalSeconds, _checkpointIntervalSeconds, TimeUnit.SECONDS);
+   }
+
+   /**
+    * @return  a table of the configured storage engine.
+    * @throws IllegalArgumentException if the storage engine is unknown.
+    */
+   private ChassisTable createTable() {
+      String engine = (_storageEngine == null) ? "" : _storageEngine.trim();
+      if (engine.isEmpty() || OBJECT_STORAGE_ENGINE.equals(engine)) {
+         return new HashChassisTable(CHASSIS_INITIAL_COUNT);
+      }
+      if (COMPACT_STORAGE_ENGINE.equals(engine)) {
+         return new CompactChassisTable(CHASSIS_INITIAL_COUNT);
+      }
+      throw new IllegalArgumentException("Unknown chassis storage engine: " + _storageEngine);
+   }
+
+   /**
+    * Rotates the journal while mutations are blocked, then writes the snapshot
+    * of that point in time while mutations continue in the new log generation.
+    *
+    * @param force   true to write a snapshot even if the current log is empty.
+    */
+   private synchronized void checkpoint(boolean force) {
+      ChassisJournal journal = _journal;
+      if (journal == null) {
+         return;
+      }
+      List<Chassis> objects;
+      Map<String, Set<String>> bindings;
+      int nextIndex;
+      long generation;
+      _checkpointLock.writeLock().lock();
+      try {
+         if (!force && !journal.hasChangesSinceRotate()) {
+            return;
+         }
+         generation = journal.rotate();
+         objects = _fakeStore.snapshot();
+         bindings = _hostIndex.getBindings();
+         nextIndex = _index.get();
+      } catch (IOException e) {
+         _logger.error("Could not rotate the chassis journal", e);
+         return;
+      } finally {
+         _checkpointLock.writeLock().unlock();
+      }
+
+      try {
+         journal.writeSnapshot(objects, bindings, nextIndex, generation);
+      } catch (IOException e) {
+         // The previous snapshot and the logs since then are still in place.
+         _logger.error("Could not write the chassis snapshot", e);
+      }
+   }
+
+   /**
+    * Atomically assigns the given name to a chassis id in the name index.
+    *
+    * @param name the name of a chassis object.
+    * @param id   the id of the chassis object which claims the name.
+    * @return  true if the name was free or is already owned by the given id,
+    *          or false if another chassis object owns it.
+    */
+   private boolean reserveName(String name, String id) {
+      String owner = _nameIndex.putIfAbsent(name, id);
+      return owner == null || owner.equals(id);
+   }
+
+   /**
+    * Removes a name from the name index if it is still owned by the given id.
+    *
+    * @param name the name of a chassis object.
+    * @param id   the id of the chassis object which owned the name.
+    */
+   private void releaseName(String name, String id) {
+      _nameIndex.remove(name, id);
+   }
+
+   /**
+    * Work in progress of {@link #applyBatch(List)}.
+    */
+   private static final class BatchState {
+      final List<ChassisRecord> records;
+      // State of the chassis objects touched by the batch, null once deleted.
+      final Map<String, Chassis> pending = new HashMap<>();
+      // Names given up by the batch, mapped to the id still owning them in the index.
+      final Map<String, String> freedNames = new LinkedHashMap<>();
+      // Name index changes in order, undone if the batch cannot be committed.
+      final List<NameChange> nameChanges = new ArrayList<>();
+
+      BatchState(int size) {
+         records = new ArrayList<>(size);
+      }
+   }
+
+   /**
+    * A name index entry assigned by a batch.
+    */
+   private static final class NameChange {
+      final String name;
+      // The owner before the change, or null if the name was free.
+      final String from;
+      final String to;
+
+      NameChange(String name, String from, String to) {
+         this.name = name;
+         this.from = from;
+         this.to = to;
+      }
+
+      void undo(ConcurrentMap<String, String> nameIndex) {
+         if (from == null) {
+            nameIndex.remove(name, to);
+         } else {
+            nameIndex.replace(name, to, from);
          }
-         return true;
       }
    }
 }
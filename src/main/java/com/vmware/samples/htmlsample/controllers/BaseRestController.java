@@ -1,44 +1,171 @@
 /* Copyright (c) 2018 VMware, Inc. All rights reserved. */
 package com.vmware.samples.htmlsample.controllers;
 
+import com.vmware.samples.htmlsample.vim25.services.VimObjectServiceException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Base rest controller used to isolate common functionality
+ *
+ * Failed requests are answered with an error code and the exception message,
+ * without the stack trace. The failures are counted per signature, i.e. per
+ * error code and exception class, and the stack trace is only logged for the
+ * first STACK_TRACE_SAMPLES failures of a signature, so that a burst of
+ * identical failures, e.g. while a vCenter is down, costs about as much as
+ * successful requests.
+ *
+ * The status of the response depends on the error code: 400 for
+ * INVALID_ARGUMENT, 504 for TIMEOUT, 503 for VCENTER_UNAVAILABLE and 500 for
+ * INTERNAL_ERROR. An internal error is answered with a generic message and no
+ * cause, its message is only logged.
  */
 public abstract class BaseRestController {
+   private static final Log _logger = LogFactory.getLog(BaseRestController.class);
+
+   /** The request has an invalid parameter. */
+   public static final String INVALID_ARGUMENT = "INVALID_ARGUMENT";
+   /** A result was not available in time. */
+   public static final String TIMEOUT = "TIMEOUT";
+   /** A vCenter could not be queried. */
+   public static final String VCENTER_UNAVAILABLE = "VCENTER_UNAVAILABLE";
+   /** Any other failure. */
+   public static final String INTERNAL_ERROR = "INTERNAL_ERROR";
+
+   // Number of failures of a signature logged with their stack trace.
+   private static final int STACK_TRACE_SAMPLES = 5;
+   // Number of signatures counted separately, the next ones share one counter.
+   private static final int MAX_SIGNATURES = 1000;
+   private static final String OTHER_SIGNATURE = "other";
+   private static final String INTERNAL_ERROR_MESSAGE = "Internal error, see the server log";
+
+   // The failure counters of each error code, by exception class.
+   private static final Map<String, ConcurrentMap<Class<?>, AtomicLong>> _failureCounts =
+         new HashMap<>();
+   static {
+      for (String code : new String[] {INVALID_ARGUMENT, TIMEOUT, VCENTER_UNAVAILABLE,
+            INTERNAL_ERROR}) {
+         _failureCounts.put(code, new ConcurrentHashMap<Class<?>, AtomicLong>());
+      }
+   }
+   private static final AtomicInteger _signatureCount = new AtomicInteger();
+   private static final AtomicLong _otherFailureCount = new AtomicLong();
 
    /**
     * Generic handling of internal exceptions.
-    * Sends a 500 server error response along with a json body with messages
+    * Sends an error response with the status of the error code, along with a
+    * json body with messages
     *
     * @param ex The exception that was thrown.
     * @param response
-    * @return a map containing the exception message, the cause, and a stackTrace
+    * @return a map containing the error code, and the exception message and
+    *    cause, or a generic message for internal errors
     */
    @ExceptionHandler(Exception.class)
    @ResponseBody
    public Map<String, String> handleException(Exception ex, HttpServletResponse response) {
-      response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+      String code = getErrorCode(ex);
+      response.setStatus(getStatus(code).value());
+      countFailure(code, ex);
 
       Map<String, String> errorMap = new HashMap<String, String>();
+      errorMap.put("code", code);
+      if (INTERNAL_ERROR.equals(code)) {
+         errorMap.put("message", INTERNAL_ERROR_MESSAGE);
+         return errorMap;
+      }
       errorMap.put("message", ex.getMessage());
       if (ex.getCause() != null) {
          errorMap.put("cause", ex.getCause().getMessage());
       }
-      StringWriter sw = new StringWriter();
-      PrintWriter pw = new PrintWriter(sw);
-      ex.printStackTrace(pw);
-      errorMap.put("stackTrace", sw.toString());
-
       return errorMap;
    }
+
+   /**
+    * @return the number of failed requests, keyed by signature.
+    */
+   public static Map<String, Long> getFailureCounts() {
+      Map<String, Long> counts = new HashMap<>();
+      for (Map.Entry<String, ConcurrentMap<Class<?>, AtomicLong>> code
+            : _failureCounts.entrySet()) {
+         for (Map.Entry<Class<?>, AtomicLong> entry : code.getValue().entrySet()) {
+            counts.put(code.getKey() + " " + entry.getKey().getName(), entry.getValue().get());
+         }
+      }
+      if (_otherFailureCount.get() > 0) {
+         counts.put(OTHER_SIGNATURE, _otherFailureCount.get());
+      }
+      return counts;
+   }
+
+   private static String getErrorCode(Exception ex) {
+      if (ex instanceof IllegalArgumentException) {
+         return INVALID_ARGUMENT;
+      }
+      if (ex instanceof TimeoutException) {
+         return TIMEOUT;
+      }
+      if (ex instanceof VimObjectServiceException) {
+         return VCENTER_UNAVAILABLE;
+      }
+      return INTERNAL_ERROR;
+   }
+
+   private static HttpStatus getStatus(String code) {
+      switch (code) {
+         case INVALID_ARGUMENT:
+            return HttpStatus.BAD_REQUEST;
+         case TIMEOUT:
+            return HttpStatus.GATEWAY_TIMEOUT;
+         case VCENTER_UNAVAILABLE:
+            return HttpStatus.SERVICE_UNAVAILABLE;
+         default:
+            return HttpStatus.INTERNAL_SERVER_ERROR;
+      }
+   }
+
+   /**
+    * Counts a failure, and logs it with its stack trace if it is one of the
+    * first ones of its signature. The message of the next internal errors is
+    * still logged, since it is not sent to the client.
+    */
+   private static void countFailure(String code, Exception ex) {
+      ConcurrentMap<Class<?>, AtomicLong> codeCounts = _failureCounts.get(code);
+      AtomicLong count = codeCounts.get(ex.getClass());
+      if (count == null) {
+         if (_signatureCount.get() >= MAX_SIGNATURES) {
+            count = _otherFailureCount;
+         } else {
+            AtomicLong newCount = new AtomicLong();
+            count = codeCounts.putIfAbsent(ex.getClass(), newCount);
+            if (count == null) {
+               count = newCount;
+               _signatureCount.incrementAndGet();
+            }
+         }
+      }
+
+      long occurrence = count.incrementAndGet();
+      if (occurrence <= STACK_TRACE_SAMPLES) {
+         _logger.error("Request failed, " + code + " " + ex.getClass().getName()
+               + " (occurrence " + occurrence + ")", ex);
+      } else if (INTERNAL_ERROR.equals(code)) {
+         _logger.warn("Request failed, " + code + " (occurrence " + occurrence + "): " + ex);
+      } else if (_logger.isDebugEnabled()) {
+         _logger.debug("Request failed, " + code + " " + ex.getClass().getName()
+               + " (occurrence " + occurrence + "): " + ex.getMessage());
+      }
+   }
 }
@@ -0,0 +1,168 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.controllers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisImportResult;
+import com.vmware.samples.htmlsample.model.ChassisOperation;
+import com.vmware.samples.htmlsample.model.ChassisOperationResult;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
+import com.vmware.samples.htmlsample.services.ChassisService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk export and import of chassis objects as newline-delimited JSON, one
+ * chassis object per line.
+ *
+ * Both directions are streamed: the export reads the store one page at a time
+ * and the import applies the lines in fixed-size batches, so the memory used
+ * does not depend on the number of chassis objects transferred.
+ *
+ * An import which keeps the ids creates the new chassis objects with the ids
+ * they had in the export, so that an export imported into another store keeps
+ * its ids, and the host bindings which refer to them.
+ */
+class ChassisBulkTransfer {
+   // Number of chassis objects read or applied at a time.
+   private static final int BATCH_SIZE = 1000;
+   // Number of failures reported in detail by an import.
+   private static final int MAX_REPORTED_ERRORS = 100;
+
+   private static final String INVALID_LINE_MSG = "line %d: %s";
+   private static final String INVALID_JSON_MSG = "invalid JSON, %s";
+   private static final String NOT_AN_OBJECT_MSG = "a chassis object is expected";
+
+   private final ChassisService _chassisService;
+   private final Gson _gson = new Gson();
+
+   ChassisBulkTransfer(ChassisService chassisService) {
+      _chassisService = chassisService;
+   }
+
+   /**
+    * Writes all chassis objects, ordered by id. The export is not a point in
+    * time copy: objects changed while it runs may or may not be included.
+    *
+    * @param writer   destination, flushed after every page.
+    */
+   void exportChassis(Writer writer) throws IOException {
+      ChassisQuery query = new ChassisQuery();
+      query.sort = ChassisQuery.SortKey.ID;
+      query.limit = BATCH_SIZE;
+      do {
+         ChassisPage page = _chassisService.queryChassis(query);
+         for (Chassis chassis : page.items) {
+            _gson.toJson(chassis, writer);
+            writer.write('\n');
+         }
+         writer.flush();
+         query.cursor = page.nextCursor;
+      } while (query.cursor != null);
+   }
+
+   /**
+    * Reads chassis objects until the end of the input and applies them in
+    * batches. A chassis object with the id of an existing object, or of an
+    * object created or updated by a previous line, updates it, so the last line
+    * of an id wins. Any other one is created, with its own id if keepIds is set
+    * and it has one, or with a new id otherwise. Invalid lines are reported and
+    * skipped without failing the others.
+    *
+    * @param reader   newline-delimited JSON source, empty lines are ignored.
+    * @param keepIds  true to create the chassis objects with their own ids.
+    * @return  the import summary.
+    */
+   ChassisImportResult importChassis(BufferedReader reader, boolean keepIds)
+         throws IOException {
+      ChassisImportResult result = new ChassisImportResult();
+      List<ChassisOperation> operations = new ArrayList<>(BATCH_SIZE);
+      List<Long> lineNumbers = new ArrayList<>(BATCH_SIZE);
+      // The ids of the current batch which exist once it is applied.
+      Set<String> batchIds = new HashSet<>();
+
+      long lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         if (line.trim().isEmpty()) {
+            continue;
+         }
+         result.lines++;
+
+         Chassis chassis;
+         try {
+            chassis = _gson.fromJson(line, Chassis.class);
+         } catch (JsonParseException e) {
+            addFailure(result, lineNumber, String.format(INVALID_JSON_MSG, e.getMessage()));
+            continue;
+         }
+         if (chassis == null) {
+            addFailure(result, lineNumber, NOT_AN_OBJECT_MSG);
+            continue;
+         }
+
+         ChassisOperation operation = new ChassisOperation();
+         if (chassis.id == null) {
+            operation.op = ChassisOperation.CREATE;
+         } else if (batchIds.contains(chassis.id)
+               || _chassisService.containsChassis(chassis.id)) {
+            operation.op = ChassisOperation.UPDATE;
+            batchIds.add(chassis.id);
+         } else if (keepIds) {
+            operation.op = ChassisOperation.RESTORE;
+            batchIds.add(chassis.id);
+         } else {
+            operation.op = ChassisOperation.CREATE;
+         }
+         operation.chassis = chassis;
+         operations.add(operation);
+         lineNumbers.add(lineNumber);
+
+         if (operations.size() == BATCH_SIZE) {
+            applyBatch(operations, lineNumbers, result);
+            batchIds.clear();
+         }
+      }
+      applyBatch(operations, lineNumbers, result);
+      return result;
+   }
+
+   /**
+    * Applies and then clears the pending operations.
+    */
+   private void applyBatch(List<ChassisOperation> operations, List<Long> lineNumbers,
+         ChassisImportResult result) {
+      if (operations.isEmpty()) {
+         return;
+      }
+      List<ChassisOperationResult> batchResults = _chassisService.applyBatch(operations);
+      for (ChassisOperationResult batchResult : batchResults) {
+         if (!batchResult.success) {
+            addFailure(result, lineNumbers.get(batchResult.index), batchResult.error);
+         } else if (ChassisOperation.UPDATE.equals(operations.get(batchResult.index).op)) {
+            result.updated++;
+         } else {
+            result.created++;
+         }
+      }
+      operations.clear();
+      lineNumbers.clear();
+   }
+
+   private static void addFailure(ChassisImportResult result, long lineNumber, String error) {
+      result.failed++;
+      if (result.errors.size() < MAX_REPORTED_ERRORS) {
+         result.errors.add(String.format(INVALID_LINE_MSG, lineNumber, error));
+      }
+   }
+}
@@ -3,27 +3,65 @@
 package com.vmware.samples.htmlsample.controllers;
 
 import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import com.vmware.samples.htmlsample.model.ChassisImportResult;
+import com.vmware.samples.htmlsample.model.ChassisOperation;
+import com.vmware.samples.htmlsample.model.ChassisOperationResult;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
 import com.vmware.samples.htmlsample.services.ChassisService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * A controller to serve HTTP JSON GET/POST requests to the endpoint "/".
  */
 @Controller
 public class ChassisController extends BaseRestController {
+   // Response header carrying the cursor of the next page of a listing.
+   private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+   // Response header carrying the store version a listing includes, to be used
+   // as the "since" parameter of the next delta request.
+   private static final String VERSION_HEADER = "X-Chassis-Version";
+   // Lifetime of an event stream subscription before the client reconnects.
+   private static final long EVENT_STREAM_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+   // Media type of the bulk export and import.
+   private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
    private final ChassisService _chassisService;
+   private final ChassisEventStream _eventStream;
+   private final ChassisBulkTransfer _bulkTransfer;
+   private final JsonResponseWriter _jsonWriter = new JsonResponseWriter();
 
    @Autowired
    public ChassisController(ChassisService chassisService) {
       _chassisService = chassisService;
+      _eventStream = new ChassisEventStream(chassisService, EVENT_STREAM_TIMEOUT_MILLIS);
+      _bulkTransfer = new ChassisBulkTransfer(chassisService);
+   }
+
+   @PreDestroy
+   public void destroy() {
+      _eventStream.destroy();
    }
 
    /**
@@ -39,15 +77,112 @@ public class ChassisController extends BaseRestController {
    }
 
    /**
-    * Retrieves all chassis objects.
+    * Retrieves the object ids of the hosts bound to a chassis.
+    *
+    * @param objectId   id of the chassis object.
+    * @return  the host object ids.
+    */
+   @RequestMapping(value = "/{objectId}/hosts", method = RequestMethod.GET)
+   @ResponseBody
+   public List<String> getRelatedHostIds(@PathVariable("objectId") String objectId) {
+      return _chassisService.getRelatedHostIds(objectId);
+   }
+
+   /**
+    * Replaces the hosts bound to a chassis.
+    *
+    * @param objectId   id of the chassis object.
+    * @param hostIds    the host object ids, empty to unbind all hosts.
+    * @return true if the hosts were bound or false if the chassis does not exist.
+    */
+   @RequestMapping(value = "/{objectId}/hosts", method = RequestMethod.POST)
+   @ResponseBody
+   public boolean setRelatedHosts(@PathVariable("objectId") String objectId,
+         @RequestBody String hostIds[]) {
+      return _chassisService.setRelatedHosts(objectId, Arrays.asList(hostIds));
+   }
+
+   /**
+    * Retrieves all chassis objects, or one filtered and sorted page of them when
+    * any of the optional parameters is set. The cursor of the next page, if any,
+    * is returned in the X-Next-Cursor response header.
     *
-    * @return list of chassis objects or null if there are none.
+    * The JSON array is streamed from the store snapshot, one chassis object at a
+    * time, so the response is never built in memory.
+    *
+    * @param serverType only return chassis objects with this server type.
+    * @param isActive   only return active or inactive chassis objects.
+    * @param sort       sort key, "name" (default) or "id".
+    * @param cursor     the X-Next-Cursor value returned with the previous page.
+    * @param limit      maximum number of chassis objects in the page, 100 by
+    *                   default and at most 1000.
     * @throws Exception
     */
    @RequestMapping(value = "/list", method = RequestMethod.GET)
+   public void getChassisList(
+         @RequestParam(value = "serverType", required = false) String serverType,
+         @RequestParam(value = "isActive", required = false) Boolean isActive,
+         @RequestParam(value = "sort", required = false) String sort,
+         @RequestParam(value = "cursor", required = false) String cursor,
+         @RequestParam(value = "limit", required = false) Integer limit,
+         HttpServletResponse response) throws Exception {
+      // Read before listing, so the listing includes at least this version.
+      response.setHeader(VERSION_HEADER, String.valueOf(_chassisService.getVersion()));
+      if (serverType == null && isActive == null && sort == null
+            && cursor == null && limit == null) {
+         _jsonWriter.writeArray(response, _chassisService.getAllChassis(), Chassis.class);
+         return;
+      }
+
+      ChassisQuery query = new ChassisQuery();
+      query.serverType = serverType;
+      query.isActive = isActive;
+      if (sort != null) {
+         query.sort = ChassisQuery.SortKey.valueOf(sort.toUpperCase(Locale.ENGLISH));
+      }
+      query.cursor = cursor;
+      if (limit != null) {
+         if (limit <= 0) {
+            throw new IllegalArgumentException("The limit must be positive: " + limit);
+         }
+         query.limit = Math.min(limit, ChassisQuery.MAX_LIMIT);
+      }
+
+      ChassisPage page = _chassisService.queryChassis(query);
+      if (page.nextCursor != null) {
+         response.setHeader(NEXT_CURSOR_HEADER, page.nextCursor);
+      }
+      _jsonWriter.writeArray(response, page.items, Chassis.class);
+   }
+
+   /**
+    * Retrieves the chassis changes committed after a given version.
+    *
+    * @param since   the X-Chassis-Version of a listing, or the version of the
+    *                previous delta.
+    * @return the changes, or a reset delta if the client must reload the list.
+    */
+   @RequestMapping(value = "/list", method = RequestMethod.GET, params = "since")
    @ResponseBody
-   public List<Chassis> getChassisList() throws Exception {
-      return _chassisService.getAllChassis();
+   public ChassisDelta getChassisChanges(@RequestParam("since") long since) {
+      return _chassisService.getChangesSince(since);
+   }
+
+   /**
+    * Opens a server-sent events stream of the chassis changes. Each event has
+    * the change version as id, the operation as name and the change as data.
+    *
+    * @param lastEventId   sent by a reconnecting EventSource.
+    * @param since         the version to start from, otherwise only the changes
+    *                      committed from now on are sent.
+    */
+   @RequestMapping(value = "/events", method = RequestMethod.GET)
+   public void getChassisEvents(
+         @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+         @RequestParam(value = "since", required = false) Long since,
+         HttpServletRequest request, HttpServletResponse response) throws Exception {
+      long from = (lastEventId != null) ? lastEventId : ((since != null) ? since : -1);
+      _eventStream.subscribe(request, response, from);
    }
 
    /**
@@ -83,13 +218,65 @@ public class ChassisController extends BaseRestController {
    @RequestMapping(value = "/delete", method = RequestMethod.POST)
    @ResponseBody
    public boolean delete(@RequestBody String targetIds[]) {
+      List<ChassisOperation> operations = new ArrayList<>(targetIds.length);
+      for (String targetId : targetIds) {
+         ChassisOperation operation = new ChassisOperation();
+         operation.op = ChassisOperation.DELETE;
+         operation.id = targetId;
+         operations.add(operation);
+      }
+
       boolean result = false;
-      for(String targetId: targetIds) {
-         result = _chassisService.delete(targetId) || result;
+      for (ChassisOperationResult operationResult : _chassisService.applyBatch(operations)) {
+         result = operationResult.success || result;
       }
       return result;
    }
 
+   /**
+    * Applies a mixed batch of create/update/delete operations in one pass.
+    *
+    * @param operations the operations to apply, in order.
+    * @return one result per operation, in the same order.
+    */
+   @RequestMapping(value = "/batch", method = RequestMethod.POST)
+   @ResponseBody
+   public List<ChassisOperationResult> batch(@RequestBody ChassisOperation operations[]) {
+      return _chassisService.applyBatch(Arrays.asList(operations));
+   }
+
+   /**
+    * Exports all chassis objects as newline-delimited JSON, streamed one page
+    * at a time.
+    */
+   @RequestMapping(value = "/export", method = RequestMethod.GET)
+   public void exportChassis(HttpServletResponse response) throws Exception {
+      response.setContentType(NDJSON_CONTENT_TYPE);
+      response.setCharacterEncoding(UTF_8.name());
+      _bulkTransfer.exportChassis(response.getWriter());
+   }
+
+   /**
+    * Imports chassis objects from a newline-delimited JSON request body, which
+    * is applied in batches while it is read. A chassis object with the id of an
+    * existing object updates it, any other one is created.
+    *
+    * @param keepIds   true to create the chassis objects with the ids they have
+    *                  in the body, e.g. to restore an export, instead of new ids.
+    * @return the numbers of created, updated and failed chassis objects.
+    */
+   @RequestMapping(value = "/import", method = RequestMethod.POST)
+   @ResponseBody
+   public ChassisImportResult importChassis(
+         @RequestParam(value = "keepIds", required = false) Boolean keepIds,
+         HttpServletRequest request) throws Exception {
+      // The body is UTF-8 unless the request says otherwise.
+      String encoding = request.getCharacterEncoding();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(),
+            (encoding != null) ? Charset.forName(encoding) : UTF_8));
+      return _bulkTransfer.importChassis(reader, Boolean.TRUE.equals(keepIds));
+   }
+
    /**
     * Perform headless action on a virtual machine vSphere object.
     */
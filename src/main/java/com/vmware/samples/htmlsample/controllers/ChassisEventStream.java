@@ -0,0 +1,320 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.controllers;
+
+import com.google.gson.Gson;
+import com.vmware.samples.htmlsample.model.ChassisChange;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import com.vmware.samples.htmlsample.services.ChassisChangeListener;
+import com.vmware.samples.htmlsample.services.ChassisService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-sent events stream of the chassis changes.
+ *
+ * Each subscriber is a suspended servlet async request, so an idle client
+ * holds no thread. Committed changes are handed to a single dispatcher thread
+ * which queues them for every subscriber, in version order. The events of a
+ * subscriber are written by one of WRITER_THREADS writer threads which drains
+ * its queue, so a slow client only delays itself and the number of threads
+ * does not grow with the number of subscribers. A subscriber whose queue is
+ * full, or whose drain cannot be scheduled because MAX_QUEUED_DRAINS drains are
+ * already waiting, is disconnected, and catches up when it reconnects. The event id is the change version, so a
+ * reconnecting EventSource resumes from its Last-Event-ID.
+ */
+class ChassisEventStream implements ChassisChangeListener {
+   private static final Log _logger = LogFactory.getLog(ChassisEventStream.class);
+
+   private static final String RESET_EVENT = "reset";
+   // Reconnecting clients are asked to wait this long, in milliseconds.
+   private static final int RETRY_MILLIS = 5000;
+   // Number of writes queued for a subscriber before it is disconnected.
+   private static final int MAX_PENDING_WRITES = 100;
+   // Number of threads writing the events, and of drains waiting for them.
+   private static final int WRITER_THREADS = 4;
+   private static final int MAX_QUEUED_DRAINS = 1000;
+
+   private final ChassisService _chassisService;
+   private final long _timeoutMillis;
+   private final Gson _gson = new Gson();
+   private final Set<Subscriber> _subscribers =
+         Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+   private final ExecutorService _dispatcher =
+         Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "chassis-event-dispatcher");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+   // Runs at most one drain of each subscriber queue at a time.
+   private final ThreadPoolExecutor _writers = new ThreadPoolExecutor(
+         WRITER_THREADS, WRITER_THREADS, 60, TimeUnit.SECONDS,
+         new ArrayBlockingQueue<Runnable>(MAX_QUEUED_DRAINS),
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "chassis-event-writer");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+
+   /**
+    * Constructor.
+    *
+    * @param chassisService   source of the changes.
+    * @param timeoutMillis    lifetime of a subscription, the client reconnects after it.
+    */
+   ChassisEventStream(ChassisService chassisService, long timeoutMillis) {
+      _chassisService = chassisService;
+      _timeoutMillis = timeoutMillis;
+      _writers.allowCoreThreadTimeOut(true);
+      _chassisService.addChangeListener(this);
+   }
+
+   /**
+    * Suspends the request and registers it as a subscriber.
+    *
+    * @param since   the last version known by the client, or a negative value
+    *                to only receive the changes committed from now on.
+    */
+   void subscribe(HttpServletRequest request, HttpServletResponse response, long since)
+         throws IOException {
+      response.setContentType("text/event-stream");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+
+      final AsyncContext asyncContext = request.startAsync(request, response);
+      asyncContext.setTimeout(_timeoutMillis);
+      final Subscriber subscriber = new Subscriber(asyncContext, response.getWriter());
+      // Read now, so that the changes committed from now on are sent even if
+      // they are committed before the subscriber is added.
+      final long from = (since < 0) ? _chassisService.getVersion() : since;
+      asyncContext.addListener(new AsyncListener() {
+         @Override
+         public void onComplete(AsyncEvent event) {
+            _subscribers.remove(subscriber);
+         }
+
+         @Override
+         public void onTimeout(AsyncEvent event) {
+            close(subscriber);
+         }
+
+         @Override
+         public void onError(AsyncEvent event) {
+            close(subscriber);
+         }
+
+         @Override
+         public void onStartAsync(AsyncEvent event) {
+         }
+      });
+
+      // Catching up is queued by the dispatcher: every change dispatched before
+      // this task is part of the delta, every change dispatched after it is
+      // queued after the delta.
+      _dispatcher.execute(new Runnable() {
+         @Override
+         public void run() {
+            final ChassisDelta delta = _chassisService.getChangesSince(from);
+            _subscribers.add(subscriber);
+            enqueue(subscriber, new Runnable() {
+               @Override
+               public void run() {
+                  subscriber.writer.write("retry: " + RETRY_MILLIS + "\n\n");
+                  if (delta.reset) {
+                     writeEvent(subscriber, delta.version, RESET_EVENT, "{}");
+                  } else {
+                     send(subscriber, delta.changes);
+                  }
+                  subscriber.lastVersion = delta.version;
+               }
+            });
+         }
+      });
+   }
+
+   @Override
+   public void changesCommitted(final List<ChassisChange> changes) {
+      // Always goes through the dispatcher, even without subscribers, since a
+      // subscriber which is catching up is only added by the dispatcher.
+      _dispatcher.execute(new Runnable() {
+         @Override
+         public void run() {
+            for (final Subscriber subscriber : _subscribers) {
+               enqueue(subscriber, new Runnable() {
+                  @Override
+                  public void run() {
+                     send(subscriber, changes);
+                  }
+               });
+            }
+         }
+      });
+   }
+
+   /**
+    * Completes all subscriptions and stops the dispatcher.
+    */
+   void destroy() {
+      _chassisService.removeChangeListener(this);
+      _dispatcher.shutdownNow();
+      _writers.shutdownNow();
+      for (Subscriber subscriber : _subscribers) {
+         close(subscriber);
+      }
+   }
+
+   /**
+    * Queues a write for a subscriber, and starts draining its queue unless it
+    * is already drained. Disconnects the subscriber if its queue is full.
+    */
+   private void enqueue(final Subscriber subscriber, Runnable write) {
+      boolean drain;
+      synchronized (subscriber) {
+         if (subscriber.closed) {
+            return;
+         }
+         if (subscriber.pending.size() >= MAX_PENDING_WRITES) {
+            drain = false;
+            write = null;
+         } else {
+            subscriber.pending.add(write);
+            drain = !subscriber.draining;
+            subscriber.draining = true;
+         }
+      }
+      if (write == null) {
+         _logger.info("Disconnecting a chassis event subscriber which does not keep up");
+         close(subscriber);
+         return;
+      }
+      if (drain) {
+         try {
+            _writers.execute(new Runnable() {
+               @Override
+               public void run() {
+                  drain(subscriber);
+               }
+            });
+         } catch (RejectedExecutionException e) {
+            _logger.info("Disconnecting a chassis event subscriber, the writers are saturated");
+            close(subscriber);
+         }
+      }
+   }
+
+   /**
+    * Runs the queued writes of a subscriber and flushes them, until its queue
+    * is empty.
+    */
+   private void drain(Subscriber subscriber) {
+      while (true) {
+         Runnable write;
+         synchronized (subscriber) {
+            if (subscriber.closed) {
+               return;
+            }
+            write = subscriber.pending.poll();
+         }
+         if (write != null) {
+            write.run();
+            continue;
+         }
+         if (!flush(subscriber)) {
+            return;
+         }
+         synchronized (subscriber) {
+            if (subscriber.pending.isEmpty()) {
+               subscriber.draining = false;
+               return;
+            }
+         }
+      }
+   }
+
+   private void send(Subscriber subscriber, List<ChassisChange> changes) {
+      for (ChassisChange change : changes) {
+         // Skips the changes the subscriber already got while catching up.
+         if (change.version > subscriber.lastVersion) {
+            writeEvent(subscriber, change.version, change.op, _gson.toJson(change));
+            subscriber.lastVersion = change.version;
+         }
+      }
+   }
+
+   private static void writeEvent(Subscriber subscriber, long id, String event, String data) {
+      subscriber.writer.write("id: " + id + "\nevent: " + event + "\ndata: " + data + "\n\n");
+   }
+
+   /**
+    * Flushes the events written to a subscriber, and drops it if the
+    * connection is gone.
+    *
+    * @return  true if the subscriber is still connected.
+    */
+   private boolean flush(Subscriber subscriber) {
+      subscriber.writer.flush();
+      if (subscriber.writer.checkError()) {
+         close(subscriber);
+         return false;
+      }
+      return true;
+   }
+
+   private void close(Subscriber subscriber) {
+      _subscribers.remove(subscriber);
+      synchronized (subscriber) {
+         subscriber.closed = true;
+         subscriber.pending.clear();
+      }
+      try {
+         subscriber.asyncContext.complete();
+      } catch (IllegalStateException e) {
+         _logger.debug("Chassis event subscription already completed", e);
+      }
+   }
+
+   /**
+    * A suspended event stream request. The writer and lastVersion are only used
+    * by the drain of its queue, the other fields are guarded by the subscriber.
+    */
+   private static final class Subscriber {
+      final AsyncContext asyncContext;
+      final PrintWriter writer;
+      long lastVersion;
+      final Queue<Runnable> pending = new ArrayDeque<>();
+      boolean draining;
+      boolean closed;
+
+      Subscriber(AsyncContext asyncContext, PrintWriter writer) {
+         this.asyncContext = asyncContext;
+         this.writer = writer;
+      }
+   }
+}
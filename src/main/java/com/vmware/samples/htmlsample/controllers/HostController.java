@@ -2,24 +2,54 @@
 
 package com.vmware.samples.htmlsample.controllers;
 
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import com.vmware.samples.htmlsample.model.Chassis;
-import com.vmware.samples.htmlsample.model.Host;
+import com.vmware.samples.htmlsample.model.HostQueryResult;
 import com.vmware.samples.htmlsample.services.HostService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.ResponseBody;
-
-import java.util.List;
 
 /**
  * A controller which returns information about vsphere host objects.
+ *
+ * The host requests are asynchronous: the servlet thread is released as soon
+ * as the vCenter queries are started, and the response is written when the
+ * HostService completes the result. The hosts are streamed to the client, one
+ * at a time, on a container thread.
+ *
+ * Only the serialization is streamed: the memory used by a hosts request stays
+ * proportional to its result. The HostService builds the whole HostQueryResult
+ * before it is written, because the hosts of a vCenter are cached and their
+ * query is shared by the concurrent requests for the same vCenter, so they
+ * must be complete lists. VimObjectService.retrieveObjectProperties with a
+ * PropertyPageHandler is the way to consume the objects one page at a time,
+ * for a caller which needs neither the cache nor the shared queries.
  */
 @Controller
 public class HostController extends BaseRestController {
+   private static final Log _logger = LogFactory.getLog(HostController.class);
+
+   // The HostService completes its results within its own server timeout, this
+   // only bounds a request whose result would never come.
+   private static final long RESULT_TIMEOUT_MILLIS = 60000;
+
    private final HostService _hostService;
+   private final JsonResponseWriter _jsonWriter = new JsonResponseWriter();
 
    @Autowired
    public HostController(HostService hostService) {
@@ -27,15 +57,117 @@ public class HostController extends BaseRestController {
    }
 
    /**
-    * Retrieves all host objects related to a a given chassis.
+    * Retrieves all host objects related to a a given chassis, and writes them
+    * with the status of each vCenter which was queried once they are available.
+    * The vCenter queries are abandoned if the request times out or the client
+    * goes away.
     * @param chassis to which will be related host objects
-    * @return list of host objects.
     */
    @RequestMapping(value = "hosts", method = RequestMethod.POST)
-   @ResponseBody
-   public List<Host> getHostsList(
-         @RequestBody Chassis chassis) throws Exception {
-      return _hostService.getRelatedHosts(chassis);
+   public void getHostsList(@RequestBody Chassis chassis, HttpServletRequest request,
+         HttpServletResponse response) throws Exception {
+      ListenableFuture<HostQueryResult> hosts = _hostService.getRelatedHostsAsync(chassis);
+      AsyncContext asyncContext = request.startAsync(request, response);
+      asyncContext.setTimeout(RESULT_TIMEOUT_MILLIS);
+      HostResponse hostResponse = new HostResponse(asyncContext, response, hosts);
+      asyncContext.addListener(hostResponse);
+      hosts.addCallback(hostResponse);
    }
-}
 
+   /**
+    * Writes the response of a suspended hosts request, either the result or an
+    * error, exactly once.
+    */
+   private class HostResponse
+         implements ListenableFutureCallback<HostQueryResult>, AsyncListener {
+      private final AsyncContext _asyncContext;
+      private final HttpServletResponse _response;
+      private final ListenableFuture<HostQueryResult> _hosts;
+      // Set by the first of the result, the timeout or the end of the request.
+      private final AtomicBoolean _done = new AtomicBoolean();
+
+      HostResponse(AsyncContext asyncContext, HttpServletResponse response,
+            ListenableFuture<HostQueryResult> hosts) {
+         _asyncContext = asyncContext;
+         _response = response;
+         _hosts = hosts;
+      }
+
+      @Override
+      public void onSuccess(final HostQueryResult result) {
+         if (!_done.compareAndSet(false, true)) {
+            return;
+         }
+         // The callback runs on the thread which completed the result, the
+         // response is written on a container thread instead.
+         _asyncContext.start(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  _jsonWriter.writeHostQueryResult(_response, result);
+               } catch (IOException e) {
+                  _logger.warn("Cannot write the hosts response: " + e.getMessage());
+               } finally {
+                  _asyncContext.complete();
+               }
+            }
+         });
+      }
+
+      @Override
+      public void onFailure(final Throwable ex) {
+         if (!_done.compareAndSet(false, true)) {
+            return;
+         }
+         // Like the result, the error is written on a container thread rather
+         // than on the vCenter query or timer thread which failed the result.
+         _asyncContext.start(new Runnable() {
+            @Override
+            public void run() {
+               writeError(ex);
+            }
+         });
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+         // Already on a container thread, and the request must be completed
+         // before this listener returns.
+         if (_done.compareAndSet(false, true)) {
+            _hosts.cancel(true);
+            writeError(new TimeoutException(
+                  "No hosts within " + RESULT_TIMEOUT_MILLIS + " ms."));
+         }
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+         if (_done.compareAndSet(false, true)) {
+            _hosts.cancel(true);
+            _asyncContext.complete();
+         }
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+         // Nothing when the result was written, otherwise stops waiting for the vCenters.
+         _done.set(true);
+         _hosts.cancel(true);
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+
+      private void writeError(Throwable ex) {
+         Exception exception = (ex instanceof Exception) ? (Exception) ex : new Exception(ex);
+         try {
+            _jsonWriter.writeValue(_response, handleException(exception, _response));
+         } catch (IOException e) {
+            _logger.warn("Cannot write the hosts error: " + e.getMessage());
+         } finally {
+            _asyncContext.complete();
+         }
+      }
+   }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.controllers;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import com.vmware.samples.htmlsample.model.Host;
+import com.vmware.samples.htmlsample.model.HostQueryResult;
+import com.vmware.samples.htmlsample.model.ServerStatus;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Writes JSON response bodies incrementally, one element at a time, instead of
+ * building the whole body before sending it.
+ *
+ * The responses have no content length, so they are sent with chunked transfer
+ * encoding, and the writer is flushed every FLUSH_INTERVAL elements: the body
+ * is never held in memory whatever the number of elements, and the client
+ * receives the first elements while the next ones are written. The elements
+ * themselves are in memory if the caller holds them, see HostController.
+ * Null fields are written, like the message converter does.
+ */
+class JsonResponseWriter {
+   private static final String JSON_CONTENT_TYPE = "application/json";
+   private static final String UTF_8 = "UTF-8";
+   // Number of elements written between two flushes.
+   private static final int FLUSH_INTERVAL = 500;
+
+   private final Gson _gson = new GsonBuilder().serializeNulls().create();
+
+   /**
+    * Writes a JSON array of the given elements.
+    *
+    * @param elementType   the type of the elements, used to serialize them.
+    */
+   void writeArray(HttpServletResponse response, Iterable<?> elements, Type elementType)
+         throws IOException {
+      JsonWriter writer = startResponse(response);
+      writeArray(writer, elements, elementType);
+      writer.flush();
+   }
+
+   /**
+    * Writes a HostQueryResult, streaming its hosts.
+    */
+   void writeHostQueryResult(HttpServletResponse response, HostQueryResult result)
+         throws IOException {
+      JsonWriter writer = startResponse(response);
+      writer.beginObject();
+      writer.name("hosts");
+      writeArray(writer, result.hosts, Host.class);
+      writer.name("servers");
+      writeArray(writer, result.servers, ServerStatus.class);
+      writer.endObject();
+      writer.flush();
+   }
+
+   /**
+    * Writes a single value, e.g. an error body.
+    */
+   void writeValue(HttpServletResponse response, Object value) throws IOException {
+      JsonWriter writer = startResponse(response);
+      _gson.toJson(value, value.getClass(), writer);
+      writer.flush();
+   }
+
+   private JsonWriter startResponse(HttpServletResponse response) throws IOException {
+      response.setContentType(JSON_CONTENT_TYPE);
+      response.setCharacterEncoding(UTF_8);
+      JsonWriter writer = new JsonWriter(response.getWriter());
+      writer.setSerializeNulls(true);
+      return writer;
+   }
+
+   private void writeArray(JsonWriter writer, Iterable<?> elements, Type elementType)
+         throws IOException {
+      writer.beginArray();
+      if (elements != null) {
+         int count = 0;
+         for (Object element : elements) {
+            _gson.toJson(element, elementType, writer);
+            if (++count % FLUSH_INTERVAL == 0) {
+               writer.flush();
+            }
+         }
+      }
+      writer.endArray();
+   }
+}
@@ -0,0 +1,26 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+/**
+ * A committed chassis mutation, as published by the change feed.
+ */
+public class ChassisChange {
+   public static final String CREATE = "create";
+   public static final String UPDATE = "update";
+   public static final String DELETE = "delete";
+
+   // Store version of the change, increasing by one with every change.
+   public long version;
+   // One of "create", "update" or "delete".
+   public String op;
+   public String id;
+   // The new chassis data, null for a delete.
+   public Chassis chassis;
+
+   public ChassisChange(String op, String id, Chassis chassis) {
+      this.op = op;
+      this.id = id;
+      this.chassis = chassis;
+   }
+}
@@ -0,0 +1,23 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+import java.util.List;
+
+/**
+ * The chassis changes committed after a given store version.
+ */
+public class ChassisDelta {
+
+   // The store version the client is in sync with after applying the changes.
+   public long version;
+   // True if the changes are no longer available and the client must reload the list.
+   public boolean reset;
+   public List<ChassisChange> changes;
+
+   public ChassisDelta(long version, boolean reset, List<ChassisChange> changes) {
+      this.version = version;
+      this.reset = reset;
+      this.changes = changes;
+   }
+}
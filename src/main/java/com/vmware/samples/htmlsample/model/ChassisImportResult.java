@@ -0,0 +1,24 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of a bulk chassis import.
+ */
+public class ChassisImportResult {
+
+   // Number of non-empty lines read.
+   public long lines;
+   public long created;
+   public long updated;
+   public long failed;
+   // The first failures, as "line N: reason", the others are only counted.
+   public List<String> errors = new ArrayList<String>();
+
+   public ChassisImportResult() {
+      // A default constructor is needed for the JSON serialization to work.
+   }
+}
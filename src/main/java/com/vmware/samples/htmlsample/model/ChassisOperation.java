@@ -0,0 +1,26 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+/**
+ * One operation of a chassis batch.
+ */
+public class ChassisOperation {
+   public static final String CREATE = "create";
+   public static final String UPDATE = "update";
+   public static final String DELETE = "delete";
+   // Creates a chassis object with the id it already has, e.g. when importing
+   // an export into another store.
+   public static final String RESTORE = "restore";
+
+   // One of "create", "update", "delete" or "restore".
+   public String op;
+   // The chassis data for create, update and restore operations.
+   public Chassis chassis;
+   // The id of the chassis object to delete.
+   public String id;
+
+   public ChassisOperation() {
+      // A default constructor is needed for the JSON serialization to work.
+   }
+}
@@ -0,0 +1,37 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+/**
+ * Outcome of one operation of a chassis batch.
+ */
+public class ChassisOperationResult {
+
+   // Position of the operation in the batch.
+   public int index;
+   // Id of the created, updated or deleted chassis object, if known.
+   public String id;
+   public boolean success;
+   // The reason of a failure, null on success.
+   public String error;
+
+   public ChassisOperationResult() {
+      // A default constructor is needed for the JSON serialization to work.
+   }
+
+   public static ChassisOperationResult success(int index, String id) {
+      ChassisOperationResult result = new ChassisOperationResult();
+      result.index = index;
+      result.id = id;
+      result.success = true;
+      return result;
+   }
+
+   public static ChassisOperationResult failure(int index, String id, String error) {
+      ChassisOperationResult result = new ChassisOperationResult();
+      result.index = index;
+      result.id = id;
+      result.error = error;
+      return result;
+   }
+}
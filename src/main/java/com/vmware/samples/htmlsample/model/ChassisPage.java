@@ -0,0 +1,20 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+import java.util.List;
+
+/**
+ * One page of a chassis listing.
+ */
+public class ChassisPage {
+
+   public List<Chassis> items;
+   // Cursor of the next page, or null if this is the last page.
+   public String nextCursor;
+
+   public ChassisPage(List<Chassis> items, String nextCursor) {
+      this.items = items;
+      this.nextCursor = nextCursor;
+   }
+}
@@ -0,0 +1,33 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.model;
+
+/**
+ * Filter, sort and paging parameters of a chassis listing.
+ */
+public class ChassisQuery {
+   // Page size when the query sets none, and the biggest page size served.
+   public static final int DEFAULT_LIMIT = 100;
+   public static final int MAX_LIMIT = 1000;
+
+   /**
+    * Supported sort keys, the order is always ascending.
+    */
+   public enum SortKey {
+      NAME,
+      ID
+   }
+
+   // Only chassis objects with this server type, or any if null.
+   public String serverType;
+   // Only active or inactive chassis objects, or any if null.
+   public Boolean isActive;
+   public SortKey sort = SortKey.NAME;
+   // Opaque cursor returned with the previous page, or null for the first page.
+   public String cursor;
+   // Maximum number of chassis objects in the page, at most MAX_LIMIT.
+   public int limit = DEFAULT_LIMIT;
+
+   public ChassisQuery() {
+   }
+}
@@ -0,0 +1,21 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The hosts related to a chassis, gathered from several vCenters, with the
+ * status of each vCenter. The hosts of a vCenter which failed or timed out are
+ * missing, the other ones are complete.
+ */
+public class HostQueryResult {
+
+   public List<Host> hosts = new ArrayList<Host>();
+   // One status per queried vCenter.
+   public List<ServerStatus> servers = new ArrayList<ServerStatus>();
+
+   public HostQueryResult() {
+      // A default constructor is needed for the JSON serialization to work.
+   }
+}
@@ -0,0 +1,32 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.model;
+
+/**
+ * Outcome of the query sent to one vCenter.
+ */
+public class ServerStatus {
+   public static final String OK = "ok";
+   public static final String TIMEOUT = "timeout";
+   public static final String ERROR = "error";
+   public static final String REJECTED = "rejected";
+
+   public String name;
+   public String serviceGuid;
+   // One of "ok", "timeout", "error" or "rejected".
+   public String status;
+   // The reason of a failure, null on success.
+   public String error;
+   // Number of connected hosts returned by the vCenter.
+   public int hostCount;
+   // Time spent waiting for the vCenter, in milliseconds.
+   public long elapsedMillis;
+
+   public ServerStatus() {
+      // A default constructor is needed for the JSON serialization to work.
+   }
+
+   public ServerStatus(String name, String serviceGuid) {
+      this.name = name;
+      this.serviceGuid = serviceGuid;
+   }
+}
@@ -0,0 +1,21 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.services;
+
+import com.vmware.samples.htmlsample.model.ChassisChange;
+
+import java.util.List;
+
+/**
+ * Listener of committed chassis changes, see {@link ChassisService#addChangeListener}.
+ */
+public interface ChassisChangeListener {
+
+   /**
+    * Called on the committing thread, in version order. Implementations must
+    * hand the changes off and return quickly.
+    *
+    * @param changes the changes of one commit, unmodifiable.
+    */
+   void changesCommitted(List<ChassisChange> changes);
+}
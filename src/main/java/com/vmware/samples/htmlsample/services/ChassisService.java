@@ -3,6 +3,11 @@
 package com.vmware.samples.htmlsample.services;
 
 import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import com.vmware.samples.htmlsample.model.ChassisOperation;
+import com.vmware.samples.htmlsample.model.ChassisOperationResult;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
 import java.util.List;
 
 /**
@@ -17,12 +22,28 @@ public interface ChassisService {
     */
    Chassis getChassisById(String chassisId);
 
+   /**
+    * Checks whether a chassis object exists, without reading it.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @return  true if a chassis object has this id.
+    */
+   boolean containsChassis(String chassisId);
+
    /**
     * Retrieves all existing chassis objects.
     * @return  a list of chassis objects.
     */
    List<Chassis> getAllChassis();
 
+   /**
+    * Retrieves one page of the chassis objects matching a query.
+    *
+    * @param query   filter, sort and paging parameters.
+    * @return  the chassis objects of the page and the cursor of the next one.
+    */
+   ChassisPage queryChassis(ChassisQuery query);
+
    /**
     * Creates a new chassis object.
     *
@@ -49,4 +70,56 @@ public interface ChassisService {
     *          or false otherwise.
     */
    boolean delete(String chassisId);
+
+   /**
+    * Retrieves the object ids of the hosts bound to a chassis object.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @return  the host object ids, empty if there are none.
+    */
+   List<String> getRelatedHostIds(String chassisId);
+
+   /**
+    * Replaces the hosts bound to a chassis object.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @param hostIds    the host object ids, in the "urn:vmomi:HostSystem:..." form.
+    * @return  true if the hosts have been bound
+    *          or false if the chassis does not exist.
+    * @throws IllegalArgumentException if one of the ids is not a host object id.
+    */
+   boolean setRelatedHosts(String chassisId, List<String> hostIds);
+
+   /**
+    * Applies a batch of create/update/delete/restore operations in one pass.
+    * Name uniqueness is validated across the whole batch, invalid operations
+    * are skipped and reported without failing the others.
+    *
+    * @param operations the operations to apply, in order.
+    * @return  one result per operation, in the same order.
+    */
+   List<ChassisOperationResult> applyBatch(List<ChassisOperation> operations);
+
+   /**
+    * @return  the version of the last committed chassis change.
+    */
+   long getVersion();
+
+   /**
+    * Retrieves the chassis changes committed after a given version.
+    *
+    * @param version the last version known by the client.
+    * @return  the changes, or a reset delta if the client must reload the list.
+    */
+   ChassisDelta getChangesSince(long version);
+
+   /**
+    * Registers a listener notified of every committed group of chassis changes.
+    */
+   void addChangeListener(ChassisChangeListener listener);
+
+   /**
+    * Unregisters a listener added with {@link #addChangeListener}.
+    */
+   void removeChangeListener(ChassisChangeListener listener);
 }
@@ -3,10 +3,20 @@
 package com.vmware.samples.htmlsample.services;
 
 import com.vmware.samples.htmlsample.FakeChassisStore;
+import com.vmware.samples.htmlsample.store.ChassisChangeLog;
 import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisChange;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import com.vmware.samples.htmlsample.model.ChassisOperation;
+import com.vmware.samples.htmlsample.model.ChassisOperationResult;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
+import com.vmware.samples.htmlsample.vim25.services.HostObjectId;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Implementation of ChassisService.
@@ -21,10 +31,16 @@ public class ChassisServiceImpl implements ChassisService {
          "Chassis object with the ID '%s' does not exist.";
    private static final String CHASSIS_OBJECT_CREATED_LOG_MSG =
          "Chassis object with the ID '%s' was successfully created: '%s'.";
+   private static final String CHASSIS_HOSTS_BOUND_LOG_MSG =
+         "%d hosts bound to the chassis object with the ID '%s'.";
+   private static final String CHASSIS_BATCH_APPLIED_LOG_MSG =
+         "Chassis batch applied: %d of %d operations succeeded.";
 
    private static final Log _logger = LogFactory.getLog(ChassisServiceImpl.class);
 
    private final FakeChassisStore _fakeChassisStore;
+   private final List<ChassisChangeListener> _changeListeners =
+         new CopyOnWriteArrayList<ChassisChangeListener>();
 
    /**
     * Constructor.
@@ -33,6 +49,14 @@ public class ChassisServiceImpl implements ChassisService {
     */
    public ChassisServiceImpl(FakeChassisStore fakeStore) {
       _fakeChassisStore = fakeStore;
+      _fakeChassisStore.addChangeListener(new ChassisChangeLog.Listener() {
+         @Override
+         public void changesCommitted(List<ChassisChange> changes) {
+            for (ChassisChangeListener listener : _changeListeners) {
+               listener.changesCommitted(changes);
+            }
+         }
+      });
    }
 
    /**
@@ -45,6 +69,16 @@ public class ChassisServiceImpl implements ChassisService {
       return _fakeChassisStore.getObjectById(chassisId);
    }
 
+   /**
+    * Checks whether a chassis object exists, without reading it.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @return  true if a chassis object has this id.
+    */
+   public boolean containsChassis(String chassisId) {
+      return _fakeChassisStore.containsObject(chassisId);
+   }
+
    /**
     * Retrieves all existing chassis objects.
     * @return  a list of chassis objects.
@@ -53,6 +87,16 @@ public class ChassisServiceImpl implements ChassisService {
       return _fakeChassisStore.getObjects();
    }
 
+   /**
+    * Retrieves one page of the chassis objects matching a query.
+    *
+    * @param query   filter, sort and paging parameters.
+    * @return  the chassis objects of the page and the cursor of the next one.
+    */
+   public ChassisPage queryChassis(ChassisQuery query) {
+      return _fakeChassisStore.query(query);
+   }
+
    /**
     * Creates a new chassis object.
     *
@@ -109,4 +153,86 @@ public class ChassisServiceImpl implements ChassisService {
       }
       return true;
    }
+
+   /**
+    * Retrieves the object ids of the hosts bound to a chassis object.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @return  the host object ids, empty if there are none.
+    */
+   public List<String> getRelatedHostIds(String chassisId) {
+      return new ArrayList<String>(_fakeChassisStore.getHostIds(chassisId));
+   }
+
+   /**
+    * Replaces the hosts bound to a chassis object.
+    *
+    * @param chassisId  the id of a chassis object.
+    * @param hostIds    the host object ids.
+    * @return  true if the hosts have been bound
+    *          or false if the chassis does not exist.
+    */
+   public boolean setRelatedHosts(String chassisId, List<String> hostIds) {
+      if (hostIds == null) {
+         hostIds = new ArrayList<String>();
+      }
+      for (String hostId : hostIds) {
+         // Rejects anything the host service could not look up.
+         HostObjectId.parse(hostId);
+      }
+
+      if (!_fakeChassisStore.bindHosts(chassisId, hostIds)) {
+         _logger.info(String.format(CHASSIS_OBJECT_DOES_NOT_EXIST_LOG_MSG, chassisId));
+         return false;
+      }
+      _logger.info(String.format(CHASSIS_HOSTS_BOUND_LOG_MSG, hostIds.size(), chassisId));
+      return true;
+   }
+
+   /**
+    * Applies a batch of create/update/delete/restore operations in one pass.
+    *
+    * @param operations the operations to apply, in order.
+    * @return  one result per operation, in the same order.
+    */
+   public List<ChassisOperationResult> applyBatch(List<ChassisOperation> operations) {
+      if (operations == null || operations.isEmpty()) {
+         return new ArrayList<ChassisOperationResult>();
+      }
+
+      List<ChassisOperationResult> results = _fakeChassisStore.applyBatch(operations);
+      int succeeded = 0;
+      for (ChassisOperationResult result : results) {
+         if (result.success) {
+            succeeded++;
+         }
+      }
+      _logger.info(String.format(CHASSIS_BATCH_APPLIED_LOG_MSG, succeeded, results.size()));
+      return results;
+   }
+
+   /**
+    * @return  the version of the last committed chassis change.
+    */
+   public long getVersion() {
+      return _fakeChassisStore.getVersion();
+   }
+
+   /**
+    * Retrieves the chassis changes committed after a given version.
+    *
+    * @param version the last version known by the client.
+    * @return  the changes, or a reset delta if the client must reload the list.
+    */
+   public ChassisDelta getChangesSince(long version) {
+      return _fakeChassisStore.getChangesSince(version);
+   }
+
+   public void addChangeListener(ChassisChangeListener listener) {
+      _changeListeners.add(listener);
+   }
+
+   public void removeChangeListener(ChassisChangeListener listener) {
+      _changeListeners.remove(listener);
+   }
 }
@@ -2,10 +2,8 @@
 package com.vmware.samples.htmlsample.services;
 
 import com.vmware.samples.htmlsample.model.Chassis;
-import com.vmware.samples.htmlsample.model.Host;
-
-import java.util.List;
-import java.util.Map;
+import com.vmware.samples.htmlsample.model.HostQueryResult;
+import org.springframework.util.concurrent.ListenableFuture;
 
 /**
  * Interface used to retrieve information about related hosts.
@@ -14,7 +12,16 @@ public interface HostService {
 
    /**
     * Retrieves the related host for a given Chassis
-    * @return related hosts
+    * @return related hosts, with the status of every queried vCenter
+    */
+   public HostQueryResult getRelatedHosts(Chassis chassis);
+
+   /**
+    * Starts retrieving the related host for a given Chassis, without blocking
+    * the calling thread while the vCenters are queried. The user session is
+    * read on the calling thread.
+    * @return related hosts, with the status of every queried vCenter, once
+    *    available. Cancelling it stops waiting for the vCenters.
     */
-   public List<Host> getRelatedHosts(Chassis chassis);
+   public ListenableFuture<HostQueryResult> getRelatedHostsAsync(Chassis chassis);
 }
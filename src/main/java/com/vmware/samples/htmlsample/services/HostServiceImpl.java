@@ -3,55 +3,554 @@ package com.vmware.samples.htmlsample.services;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.vmware.samples.htmlsample.model.Chassis;
 import com.vmware.samples.htmlsample.model.Host;
+import com.vmware.samples.htmlsample.model.HostQueryResult;
+import com.vmware.samples.htmlsample.model.ServerStatus;
+import com.vmware.samples.htmlsample.vim25.services.HostObjectId;
 import com.vmware.samples.htmlsample.vim25.services.VimObjectService;
+import com.vmware.vise.security.ClientSessionEndListener;
 import com.vmware.vise.usersession.ServerInfo;
+import com.vmware.vise.usersession.UserSession;
 import com.vmware.vise.usersession.UserSessionService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
 
 /**
  * Service used to retrieve information about HostSystem vsphere objects
+ *
+ * The vCenters are queried concurrently on a bounded pool of threads and each
+ * request waits at most serverTimeoutMillis for them, so a slow or unreachable
+ * vCenter only removes its own hosts from the result. A request does not hold a
+ * thread while it waits: its result is completed by the last vCenter query to
+ * finish, or by a timer at the deadline.
+ *
+ * Concurrent requests for the same hosts of the same vCenter session, e.g. the
+ * widgets of a page which load together, share a single in-flight query and
+ * its result instead of querying the vCenter once each.
+ *
+ * It is also registered as a ClientSessionEndListener, so that whatever the
+ * VimObjectService keeps for the vCenter sessions of a client is dropped when
+ * the client session ends.
  */
-public class HostServiceImpl implements HostService {
+public class HostServiceImpl implements HostService, ClientSessionEndListener {
+   private static final int DEFAULT_MAX_CONCURRENT_SERVERS = 8;
+   private static final long DEFAULT_SERVER_TIMEOUT_MILLIS = 10000;
+   // Number of queued vCenter queries per thread before new ones are rejected.
+   private static final int QUEUED_QUERIES_PER_THREAD = 16;
+
+   private static final String SERVER_TIMEOUT_MSG = "No response within %d ms.";
+   private static final String SERVER_REJECTED_MSG = "Too many concurrent vCenter queries.";
+   private static final String SERVER_INTERRUPTED_MSG = "Interrupted while waiting for the vCenter.";
+
    private final UserSessionService _userSessionService;
    private final VimObjectService _vimObjectService;
+   private final ChassisService _chassisService;
+
+   private int _maxConcurrentServers = DEFAULT_MAX_CONCURRENT_SERVERS;
+   private long _serverTimeoutMillis = DEFAULT_SERVER_TIMEOUT_MILLIS;
+   private ThreadPoolExecutor _executor;
+   // Completes the requests whose deadline passed.
+   private ScheduledThreadPoolExecutor _timer;
+
+   // The vCenter sessions of the clients which used this service.
+   // The key is a client id and the value is the ServerInfo of its user session.
+   private final ConcurrentMap<String, ServerInfo[]> _clientServers = new ConcurrentHashMap<>();
+
+   // The vCenter queries in progress, removed once they complete.
+   private final ConcurrentMap<QueryKey, ServerQuery> _queries = new ConcurrentHashMap<>();
+   private final AtomicLong _sharedQueries = new AtomicLong();
 
    private static final Log _logger = LogFactory.getLog(HostServiceImpl.class);
 
-   public HostServiceImpl(UserSessionService userSessionService, VimObjectService vimObjectService) {
+   public HostServiceImpl(UserSessionService userSessionService, VimObjectService vimObjectService,
+         ChassisService chassisService) {
       _userSessionService = userSessionService;
       _vimObjectService = vimObjectService;
+      _chassisService = chassisService;
+   }
+
+   /**
+    * @param maxConcurrentServers number of vCenter queries run at the same time.
+    */
+   public void setMaxConcurrentServers(int maxConcurrentServers) {
+      _maxConcurrentServers = maxConcurrentServers;
+   }
+
+   /**
+    * @param serverTimeoutMillis how long a request waits for each vCenter.
+    */
+   public void setServerTimeoutMillis(long serverTimeoutMillis) {
+      _serverTimeoutMillis = serverTimeoutMillis;
+   }
+
+   /**
+    * @return the number of vCenter queries which were not sent because the same
+    *         query was already in progress.
+    */
+   public long getSharedQueryCount() {
+      return _sharedQueries.get();
+   }
+
+   /**
+    * Bean init method defined in bundle-context.xml.
+    */
+   public void init() {
+      final AtomicInteger threadCount = new AtomicInteger();
+      _executor = new ThreadPoolExecutor(_maxConcurrentServers, _maxConcurrentServers,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(_maxConcurrentServers * QUEUED_QUERIES_PER_THREAD),
+            new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable,
+                        "host-service-" + threadCount.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      _executor.allowCoreThreadTimeOut(true);
+
+      _timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "host-service-timer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      _timer.setRemoveOnCancelPolicy(true);
+   }
+
+   /**
+    * Bean destroy method defined in bundle-context.xml.
+    */
+   public void destroy() {
+      if (_executor != null) {
+         _executor.shutdownNow();
+      }
+      if (_timer != null) {
+         _timer.shutdownNow();
+      }
    }
 
    /**
     * Retrieves all hosts related to a given chassis
     * @param chassis for which the related hosts will be returned
-    * @return The related host for the given Chassis
+    * @return The related host for the given Chassis, with the status of every
+    *    vCenter which was queried
+    */
+   @Override
+   public HostQueryResult getRelatedHosts(Chassis chassis) {
+      HostRequest request = (HostRequest) getRelatedHostsAsync(chassis);
+      boolean interrupted = false;
+      try {
+         while (true) {
+            try {
+               return request.get();
+            } catch (InterruptedException e) {
+               // The result is then completed right away.
+               interrupted = true;
+               request.expire(ServerStatus.ERROR, SERVER_INTERRUPTED_MSG);
+            }
+         }
+      } catch (ExecutionException | CancellationException e) {
+         // The request is not shared, so it can neither fail nor be cancelled.
+         throw new IllegalStateException(e);
+      } finally {
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /**
+    * Starts retrieving the hosts related to a given chassis, without waiting for
+    * the vCenters. The user session is read on the calling thread.
+    * @param chassis for which the related hosts will be returned
+    * @return The related host for the given Chassis, with the status of every
+    *    vCenter which was queried, available once all vCenters answered or
+    *    after serverTimeoutMillis. Cancelling it abandons the vCenter queries.
     */
    @Override
-   public List<Host> getRelatedHosts(Chassis chassis) {
-      List<Host> hosts = new ArrayList<>();
+   public ListenableFuture<HostQueryResult> getRelatedHostsAsync(Chassis chassis) {
+      HostRequest request = new HostRequest();
 
-      if (_userSessionService.getUserSession()== null || chassis == null) {
+      UserSession userSession = _userSessionService.getUserSession();
+      if (userSession == null || chassis == null) {
          _logger.warn(String.format("The %s is not defined.",
                (chassis == null) ? "chassis" : "UserSession"));
-         return hosts;
+         request.start();
+         return request;
+      }
+      if (userSession.clientId != null) {
+         _clientServers.put(userSession.clientId, userSession.serversInfo);
+      }
+
+      // Only the vcenters managing hosts of this chassis are queried, and only
+      // for these hosts.
+      Map<String, List<String>> hostIdsByServer = getRelatedHostIdsByServer(chassis);
+      for (ServerInfo serverInfoObject : userSession.serversInfo) {
+         List<String> hostIds = hostIdsByServer.get(serverInfoObject.serviceGuid);
+         if (hostIds != null) {
+            request.servers.add(serverInfoObject);
+            request.queries.add(startQuery(serverInfoObject, hostIds));
+         }
+      }
+      request.start();
+      return request;
+   }
+
+   /**
+    * Joins the query in progress for the same hosts of the same vCenter session,
+    * or starts a new one.
+    */
+   private ServerQuery startQuery(ServerInfo serverInfo, List<String> hostIds) {
+      QueryKey key = new QueryKey(serverInfo, hostIds);
+      while (true) {
+         ServerQuery query = _queries.get(key);
+         if (query != null) {
+            if (query.join()) {
+               _sharedQueries.incrementAndGet();
+               return query;
+            }
+            // Abandoned by all its callers and cancelled.
+            _queries.remove(key, query);
+            continue;
+         }
+         query = new ServerQuery(key, serverInfo, hostIds);
+         if (_queries.putIfAbsent(key, query) == null) {
+            try {
+               _executor.execute(query);
+            } catch (RejectedExecutionException e) {
+               query.reject(e);
+            }
+            return query;
+         }
+      }
+   }
+
+   /**
+    * Drops what was kept for the vCenter sessions of an ended client session.
+    *
+    * @param clientId id of the client session
+    */
+   @Override
+   public void sessionEnded(String clientId) {
+      ServerInfo[] servers = (clientId == null) ? null : _clientServers.remove(clientId);
+      if (servers == null) {
+         return;
+      }
+      for (ServerInfo serverInfoObject : servers) {
+         _vimObjectService.invalidateSession(serverInfoObject);
+      }
+   }
+
+   /**
+    * Records the outcome of a completed vcenter query.
+    * The hosts of the query are shared with the other callers, they are only read.
+    */
+   private static void collect(ServerQuery query, ServerStatus status, List<Host> hosts) {
+      try {
+         List<Host> serverHosts = query.get();
+         hosts.addAll(serverHosts);
+         status.status = ServerStatus.OK;
+         status.hostCount = serverHosts.size();
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RejectedExecutionException) {
+            status.status = ServerStatus.REJECTED;
+            status.error = SERVER_REJECTED_MSG;
+            _logger.warn("Query rejected for vCenter " + status.name);
+         } else {
+            status.status = ServerStatus.ERROR;
+            status.error = e.getCause().getMessage();
+            _logger.warn("Query failed for vCenter " + status.name, e.getCause());
+         }
+      } catch (CancellationException | InterruptedException e) {
+         // The query completed and this request is one of its callers, so it
+         // can neither be cancelled nor block.
+         status.status = ServerStatus.ERROR;
+         status.error = SERVER_INTERRUPTED_MSG;
+      }
+   }
+
+   /**
+    * A request for the related hosts of a chassis, completed by the last of its
+    * vcenter queries to finish or by the timer at its deadline, whichever comes
+    * first. The queries still running at the deadline are reported as timed
+    * out and left to their other callers, if any.
+    */
+   private final class HostRequest extends SettableListenableFuture<HostQueryResult> {
+      final List<ServerInfo> servers = new ArrayList<>();
+      final List<ServerQuery> queries = new ArrayList<>();
+      private final HostQueryResult _result = new HostQueryResult();
+
+      private final long _startNanos = System.nanoTime();
+      // The fields below are guarded by the lock of the request.
+      private int _remaining;
+      private boolean _completed;
+      private ScheduledFuture<?> _timeout;
+
+      /**
+       * Waits for the queries, which were all added.
+       */
+      void start() {
+         synchronized (this) {
+            _remaining = queries.size();
+            if (_remaining > 0) {
+               _timeout = _timer.schedule(new Runnable() {
+                  @Override
+                  public void run() {
+                     expire(ServerStatus.TIMEOUT,
+                           String.format(SERVER_TIMEOUT_MSG, _serverTimeoutMillis));
+                  }
+               }, _serverTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+         }
+         if (queries.isEmpty()) {
+            set(_result);
+            return;
+         }
+         for (ServerQuery query : queries) {
+            query.whenDone(new Runnable() {
+               @Override
+               public void run() {
+                  boolean last;
+                  synchronized (HostRequest.this) {
+                     last = --_remaining == 0 && !_completed;
+                  }
+                  if (last) {
+                     complete(null, null);
+                  }
+               }
+            });
+         }
+      }
+
+      /**
+       * Completes the request now, the queries which are still running get the
+       * given status.
+       */
+      void expire(String status, String error) {
+         complete(status, error);
+      }
+
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+         if (!claim()) {
+            return false;
+         }
+         release();
+         return super.cancel(mayInterruptIfRunning);
+      }
+
+      private void complete(String pendingStatus, String pendingError) {
+         if (!claim()) {
+            return;
+         }
+         for (int i = 0; i < queries.size(); i++) {
+            ServerQuery query = queries.get(i);
+            ServerInfo serverInfoObject = servers.get(i);
+            ServerStatus status = new ServerStatus(serverInfoObject.name, serverInfoObject.serviceGuid);
+            if (query.isDone()) {
+               collect(query, status, _result.hosts);
+            } else {
+               status.status = pendingStatus;
+               status.error = pendingError;
+               _logger.warn("Query " + pendingStatus + " for vCenter " + status.name);
+            }
+            long end = (query.endNanos != 0) ? query.endNanos : System.nanoTime();
+            status.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, end - _startNanos));
+            _result.servers.add(status);
+         }
+         release();
+         set(_result);
+      }
+
+      /**
+       * @return true for the only caller which completes the request.
+       */
+      private synchronized boolean claim() {
+         if (_completed) {
+            return false;
+         }
+         _completed = true;
+         if (_timeout != null) {
+            _timeout.cancel(false);
+         }
+         return true;
+      }
+
+      private void release() {
+         for (ServerQuery query : queries) {
+            query.leave();
+         }
+      }
+   }
+
+   /**
+    * The query of the related hosts managed by one vcenter, shared by the
+    * callers which need the same hosts of the same vCenter session while it
+    * runs. It is cancelled when all its callers gave up on it.
+    */
+   private final class ServerQuery extends FutureTask<List<Host>> {
+      private final QueryKey _key;
+      // The callers waiting for the query, 0 once they all left.
+      private final AtomicInteger _callers = new AtomicInteger(1);
+      // When the query completed, 0 while it runs.
+      volatile long endNanos;
+      // Run once the query completed, null afterwards. Guarded by the lock of the query.
+      private List<Runnable> _listeners = new ArrayList<>();
+
+      ServerQuery(QueryKey key, final ServerInfo serverInfo, final List<String> hostIds) {
+         super(new Callable<List<Host>>() {
+            @Override
+            public List<Host> call() {
+               List<Host> hosts = _vimObjectService.retrieveHosts(serverInfo, hostIds);
+               return Collections.unmodifiableList(getConnectedHosts(hosts));
+            }
+         });
+         _key = key;
+      }
+
+      /**
+       * Adds a caller, unless the query was abandoned.
+       *
+       * @return true if the caller can wait for the query.
+       */
+      boolean join() {
+         while (true) {
+            int callers = _callers.get();
+            if (callers == 0) {
+               return false;
+            }
+            if (_callers.compareAndSet(callers, callers + 1)) {
+               return true;
+            }
+         }
+      }
+
+      /**
+       * Removes a caller, the query is cancelled if it was the last one and it
+       * is still running.
+       */
+      void leave() {
+         if (_callers.decrementAndGet() == 0) {
+            cancel(true);
+         }
+      }
+
+      /**
+       * Completes the query with the rejection of its execution.
+       */
+      void reject(RejectedExecutionException e) {
+         setException(e);
+      }
+
+      /**
+       * Runs a listener once the query completed, right away if it already did.
+       */
+      void whenDone(Runnable listener) {
+         synchronized (this) {
+            if (_listeners != null) {
+               _listeners.add(listener);
+               return;
+            }
+         }
+         listener.run();
+      }
+
+      @Override
+      protected void done() {
+         endNanos = System.nanoTime();
+         _queries.remove(_key, this);
+         List<Runnable> listeners;
+         synchronized (this) {
+            listeners = _listeners;
+            _listeners = null;
+         }
+         for (Runnable listener : listeners) {
+            listener.run();
+         }
+      }
+   }
+
+   /**
+    * A vCenter session and the requested hosts.
+    */
+   private static final class QueryKey {
+      final String serviceGuid;
+      final String sessionCookie;
+      final List<String> hostIds;
+
+      QueryKey(ServerInfo serverInfo, List<String> hostIds) {
+         this.serviceGuid = serverInfo.serviceGuid;
+         this.sessionCookie = serverInfo.sessionCookie;
+         this.hostIds = hostIds;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof QueryKey)) {
+            return false;
+         }
+         QueryKey other = (QueryKey) o;
+         return equal(serviceGuid, other.serviceGuid)
+               && equal(sessionCookie, other.sessionCookie)
+               && hostIds.equals(other.hostIds);
+      }
+
+      @Override
+      public int hashCode() {
+         int result = (serviceGuid == null) ? 0 : serviceGuid.hashCode();
+         result = 31 * result + ((sessionCookie == null) ? 0 : sessionCookie.hashCode());
+         return 31 * result + hostIds.hashCode();
       }
 
-      for (ServerInfo serverInfoObject : _userSessionService.getUserSession().serversInfo) {
-         final List<Host> retrievedHosts = _vimObjectService.retrieveHosts(serverInfoObject);
-         _logger.info("Session Key >>> "+serverInfoObject.sessionKey);
-         System.out.println("Session Key >>> "+serverInfoObject.sessionKey);
-         hosts.addAll(retrievedHosts);
+      private static boolean equal(Object a, Object b) {
+         return (a == null) ? b == null : a.equals(b);
       }
+   }
 
-      
-      List<Host> hostsForChassis = getConnectedHosts(hosts);
-      return hostsForChassis;
+   /**
+    * Groups the hosts bound to a chassis by the serviceGuid of their vcenter.
+    *
+    * @return the managed object ids of the hosts, keyed by serviceGuid
+    */
+   private Map<String, List<String>> getRelatedHostIdsByServer(Chassis chassis) {
+      Map<String, List<String>> hostIdsByServer = new HashMap<>();
+      for (String objectId : _chassisService.getRelatedHostIds(chassis.id)) {
+         HostObjectId hostId = HostObjectId.parse(objectId);
+         List<String> hostIds = hostIdsByServer.get(hostId.serviceGuid);
+         if (hostIds == null) {
+            hostIds = new ArrayList<>();
+            hostIdsByServer.put(hostId.serviceGuid, hostIds);
+         }
+         hostIds.add(hostId.value);
+      }
+      return hostIdsByServer;
    }
 
    /**
@@ -60,11 +559,12 @@ public class HostServiceImpl implements HostService {
     * This logic should be adjusted to your business case and the situation
     * in which your custom objects relate to a vSphere object.
     *
-    * In this example the related hosts tab for a chassis shows only the connected hosts.
+    * In this example the related hosts tab for a chassis shows only the
+    * connected hosts among the hosts bound to the chassis.
     *
     * @return a list of connected hosts
     */
-   private List<Host> getConnectedHosts(List<Host> hosts) {
+   private static List<Host> getConnectedHosts(List<Host> hosts) {
       List<Host> result = new ArrayList<>();
       final String expectedState = "connected";
       for (Host host : hosts) {
@@ -74,7 +574,6 @@ public class HostServiceImpl implements HostService {
             result.add(host);
          }
       }
-
       return result;
    }
 }
@@ -0,0 +1,107 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.ChassisChange;
+import com.vmware.samples.htmlsample.model.ChassisDelta;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded, versioned log of the latest chassis changes.
+ *
+ * Every appended change gets the next store version. The most recent changes
+ * are kept in a ring buffer so that a client which knows a recent version can
+ * catch up with a delta instead of reloading everything, and listeners are
+ * notified of each appended group of changes.
+ */
+public class ChassisChangeLog {
+   private static final Log _logger = LogFactory.getLog(ChassisChangeLog.class);
+
+   /**
+    * Notified on the committing thread while the log is locked, in version
+    * order. Implementations must hand the changes off and return quickly.
+    */
+   public interface Listener {
+      void changesCommitted(List<ChassisChange> changes);
+   }
+
+   private final ChassisChange[] _ring;
+   private final List<Listener> _listeners = new CopyOnWriteArrayList<>();
+
+   // Version of the last appended change, written under the log monitor.
+   private volatile long _lastVersion;
+
+   /**
+    * Constructor.
+    *
+    * @param capacity   the number of changes kept for delta requests.
+    */
+   public ChassisChangeLog(int capacity) {
+      _ring = new ChassisChange[capacity];
+   }
+
+   /**
+    * @return the version of the last appended change, 0 if there is none.
+    */
+   public long lastVersion() {
+      return _lastVersion;
+   }
+
+   public void addListener(Listener listener) {
+      _listeners.add(listener);
+   }
+
+   public void removeListener(Listener listener) {
+      _listeners.remove(listener);
+   }
+
+   /**
+    * Assigns versions to a group of committed changes, stores them and
+    * notifies the listeners.
+    */
+   public synchronized void append(List<ChassisChange> changes) {
+      long version = _lastVersion;
+      for (ChassisChange change : changes) {
+         change.version = ++version;
+         _ring[(int) (version % _ring.length)] = change;
+      }
+      _lastVersion = version;
+
+      // Listeners are notified under the monitor so they see versions in order.
+      List<ChassisChange> published = Collections.unmodifiableList(changes);
+      for (Listener listener : _listeners) {
+         try {
+            listener.changesCommitted(published);
+         } catch (RuntimeException e) {
+            _logger.warn("Chassis change listener failed", e);
+         }
+      }
+   }
+
+   /**
+    * Retrieves the changes appended after the given version.
+    *
+    * @param since   the last version known by the client.
+    * @return  the changes after that version, or a reset delta if some of them
+    *          are not in the ring anymore or the version is unknown.
+    */
+   public synchronized ChassisDelta changesSince(long since) {
+      long last = _lastVersion;
+      long oldest = Math.max(1, last - _ring.length + 1);
+      if (since > last || since < oldest - 1) {
+         return new ChassisDelta(last, true, Collections.<ChassisChange>emptyList());
+      }
+
+      List<ChassisChange> changes = new ArrayList<>((int) (last - since));
+      for (long version = since + 1; version <= last; version++) {
+         changes.add(_ring[(int) (version % _ring.length)]);
+      }
+      return new ChassisDelta(last, false, changes);
+   }
+}
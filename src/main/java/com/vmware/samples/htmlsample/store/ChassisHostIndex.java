@@ -0,0 +1,97 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Association of the chassis objects with the hosts they contain.
+ *
+ * Both directions are indexed: the hosts of a chassis are read without any
+ * scan, and since a host sits in a single chassis, binding it to a chassis
+ * unbinds it from the previous one. Reads are lock-free over immutable sets,
+ * bindings are rare and serialized.
+ */
+public class ChassisHostIndex {
+
+   // The key is a chassis id and the value is the unmodifiable set of its host ids.
+   private final ConcurrentMap<String, Set<String>> _hostsByChassis =
+         new ConcurrentHashMap<>();
+   // The key is a host id and the value is the id of the chassis containing it.
+   private final ConcurrentMap<String, String> _chassisByHost = new ConcurrentHashMap<>();
+
+   /**
+    * @return  the ids of the hosts bound to a chassis, empty if there are none.
+    */
+   public Set<String> getHostIds(String chassisId) {
+      Set<String> hostIds = _hostsByChassis.get(chassisId);
+      return (hostIds == null) ? Collections.<String>emptySet() : hostIds;
+   }
+
+   /**
+    * @return  the id of the chassis a host is bound to, or null.
+    */
+   public String getChassisId(String hostId) {
+      return _chassisByHost.get(hostId);
+   }
+
+   /**
+    * Replaces the hosts bound to a chassis. Hosts bound to another chassis are
+    * moved to this one.
+    *
+    * @param chassisId  id of the chassis.
+    * @param hostIds    the new hosts of the chassis, empty to unbind them all.
+    */
+   public synchronized void bind(String chassisId, Collection<String> hostIds) {
+      unbind(chassisId);
+      if (hostIds.isEmpty()) {
+         return;
+      }
+
+      Set<String> newHostIds = Collections.unmodifiableSet(new LinkedHashSet<>(hostIds));
+      for (String hostId : newHostIds) {
+         String previousChassisId = _chassisByHost.put(hostId, chassisId);
+         if (previousChassisId != null) {
+            Set<String> remaining = new LinkedHashSet<>(getHostIds(previousChassisId));
+            remaining.remove(hostId);
+            if (remaining.isEmpty()) {
+               _hostsByChassis.remove(previousChassisId);
+            } else {
+               _hostsByChassis.put(previousChassisId, Collections.unmodifiableSet(remaining));
+            }
+         }
+      }
+      _hostsByChassis.put(chassisId, newHostIds);
+   }
+
+   /**
+    * Unbinds all hosts of a chassis, used when the chassis is deleted.
+    */
+   public synchronized void unbind(String chassisId) {
+      Set<String> hostIds = _hostsByChassis.remove(chassisId);
+      if (hostIds != null) {
+         for (String hostId : hostIds) {
+            _chassisByHost.remove(hostId, chassisId);
+         }
+      }
+   }
+
+   /**
+    * @return  a copy of all bindings, the host ids keyed by chassis id.
+    */
+   public synchronized Map<String, Set<String>> getBindings() {
+      return new HashMap<>(_hostsByChassis);
+   }
+
+   public synchronized void clear() {
+      _hostsByChassis.clear();
+      _chassisByHost.clear();
+   }
+}
@@ -0,0 +1,288 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.model.ChassisPage;
+import com.vmware.samples.htmlsample.model.ChassisQuery;
+
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted secondary indexes of the chassis store.
+ *
+ * Each chassis object is indexed in four partitions: all objects, objects of
+ * its server type, objects with its active state, and objects with both. Every
+ * partition keeps one sorted map per {@link ChassisQuery.SortKey}, so a filtered
+ * and sorted page is read by seeking to the cursor and iterating page size
+ * entries. A cursor is the encoded key of the last returned entry, which keeps
+ * it valid when objects are inserted or removed concurrently.
+ *
+ * The index only holds keys, the chassis objects of a page are read from the
+ * {@link ChassisTable} so that a compact table is not defeated by the index.
+ *
+ * Callers must serialize the add/remove calls made for the same chassis id.
+ */
+public class ChassisIndex {
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+   private static final char CURSOR_SEPARATOR = '\u0000';
+   private static final String GENERATED_ID_PREFIX = "chassis:";
+
+   private final ConcurrentMap<PartitionKey, Partition> _partitions =
+         new ConcurrentHashMap<>();
+   private final ChassisTable _table;
+
+   /**
+    * Constructor.
+    *
+    * @param table   the table the indexed chassis objects are read from.
+    */
+   public ChassisIndex(ChassisTable table) {
+      _table = table;
+   }
+
+   /**
+    * Adds a chassis object to all its partitions.
+    */
+   public void add(Chassis chassis) {
+      IndexKey nameKey = nameKey(chassis);
+      IndexKey idKey = idKey(chassis);
+      for (PartitionKey partitionKey : partitionKeys(chassis)) {
+         Partition partition = partition(partitionKey);
+         partition.byName.add(nameKey);
+         partition.byId.add(idKey);
+      }
+   }
+
+   /**
+    * Removes a chassis object from all its partitions.
+    */
+   public void remove(Chassis chassis) {
+      IndexKey nameKey = nameKey(chassis);
+      IndexKey idKey = idKey(chassis);
+      for (PartitionKey partitionKey : partitionKeys(chassis)) {
+         Partition partition = _partitions.get(partitionKey);
+         if (partition != null) {
+            partition.byName.remove(nameKey);
+            partition.byId.remove(idKey);
+         }
+      }
+   }
+
+   /**
+    * Replaces the index entries of a chassis object with the ones of its new
+    * version. The new entries are added first and only the entries the new
+    * version does not share are removed, so an unchanged entry never goes
+    * missing from the index.
+    */
+   public void replace(Chassis previous, Chassis chassis) {
+      add(chassis);
+
+      IndexKey previousNameKey = nameKey(previous);
+      IndexKey previousIdKey = idKey(previous);
+      boolean renamed = !previousNameKey.equals(nameKey(chassis));
+      List<PartitionKey> partitionKeys = Arrays.asList(partitionKeys(chassis));
+      for (PartitionKey partitionKey : partitionKeys(previous)) {
+         Partition partition = _partitions.get(partitionKey);
+         if (partition == null) {
+            continue;
+         }
+         boolean kept = partitionKeys.contains(partitionKey);
+         if (!kept || renamed) {
+            partition.byName.remove(previousNameKey);
+         }
+         if (!kept) {
+            partition.byId.remove(previousIdKey);
+         }
+      }
+   }
+
+   public void clear() {
+      _partitions.clear();
+   }
+
+   /**
+    * Reads one page of the chassis objects which match the query.
+    *
+    * @param query filter, sort and paging parameters, a limit above
+    *              ChassisQuery.MAX_LIMIT is reduced to it.
+    * @return  the page, with a cursor if more objects follow.
+    * @throws IllegalArgumentException if the cursor is invalid for this query.
+    */
+   public ChassisPage query(ChassisQuery query) {
+      ChassisQuery.SortKey sort = (query.sort == null) ? ChassisQuery.SortKey.NAME : query.sort;
+      Partition partition = _partitions.get(new PartitionKey(query.serverType, query.isActive));
+      if (partition == null || query.limit <= 0) {
+         return new ChassisPage(Collections.<Chassis>emptyList(), null);
+      }
+
+      NavigableSet<IndexKey> keys =
+            (sort == ChassisQuery.SortKey.NAME) ? partition.byName : partition.byId;
+      if (query.cursor != null && !query.cursor.isEmpty()) {
+         keys = keys.tailSet(decodeCursor(query.cursor, sort), false);
+      }
+
+      int limit = Math.min(query.limit, ChassisQuery.MAX_LIMIT);
+      List<Chassis> items = new ArrayList<>(Math.min(limit, 256));
+      IndexKey lastKey = null;
+      Iterator<IndexKey> iterator = keys.iterator();
+      while (iterator.hasNext() && items.size() < limit) {
+         IndexKey key = iterator.next();
+         // Skips an object deleted since the key was read.
+         Chassis chassis = _table.get(key.id);
+         if (chassis != null) {
+            items.add(chassis);
+         }
+         lastKey = key;
+      }
+      String nextCursor = iterator.hasNext() ? encodeCursor(lastKey, sort) : null;
+      return new ChassisPage(items, nextCursor);
+   }
+
+   private Partition partition(PartitionKey key) {
+      Partition partition = _partitions.get(key);
+      if (partition == null) {
+         Partition newPartition = new Partition();
+         partition = _partitions.putIfAbsent(key, newPartition);
+         if (partition == null) {
+            partition = newPartition;
+         }
+      }
+      return partition;
+   }
+
+   private static PartitionKey[] partitionKeys(Chassis chassis) {
+      if (chassis.serverType == null) {
+         return new PartitionKey[] {
+               new PartitionKey(null, null),
+               new PartitionKey(null, chassis.isActive) };
+      }
+      return new PartitionKey[] {
+            new PartitionKey(null, null),
+            new PartitionKey(chassis.serverType, null),
+            new PartitionKey(null, chassis.isActive),
+            new PartitionKey(chassis.serverType, chassis.isActive) };
+   }
+
+   private static IndexKey nameKey(Chassis chassis) {
+      return new IndexKey(chassis.name, 0, chassis.id);
+   }
+
+   /**
+    * Generated ids are ordered by their number, other ids come after them.
+    */
+   private static IndexKey idKey(Chassis chassis) {
+      long number = Long.MAX_VALUE;
+      if (chassis.id.startsWith(GENERATED_ID_PREFIX)) {
+         try {
+            number = Long.parseLong(chassis.id.substring(GENERATED_ID_PREFIX.length()));
+         } catch (NumberFormatException e) {
+            // Not a generated id.
+         }
+      }
+      return new IndexKey("", number, chassis.id);
+   }
+
+   private static String encodeCursor(IndexKey key, ChassisQuery.SortKey sort) {
+      String value = sort.name() + CURSOR_SEPARATOR + key.number + CURSOR_SEPARATOR
+            + key.primary + CURSOR_SEPARATOR + key.id;
+      return DatatypeConverter.printHexBinary(value.getBytes(UTF_8)).toLowerCase();
+   }
+
+   private static IndexKey decodeCursor(String cursor, ChassisQuery.SortKey sort) {
+      try {
+         String value = new String(DatatypeConverter.parseHexBinary(cursor), UTF_8);
+         String[] parts = value.split(String.valueOf(CURSOR_SEPARATOR), -1);
+         if (parts.length == 4 && sort.name().equals(parts[0])) {
+            return new IndexKey(parts[2], Long.parseLong(parts[1]), parts[3]);
+         }
+      } catch (IllegalArgumentException e) {
+         // Reported below, NumberFormatException is an IllegalArgumentException.
+      }
+      throw new IllegalArgumentException("Invalid cursor for sort " + sort + ": " + cursor);
+   }
+
+   /**
+    * The sorted maps of one filter combination.
+    */
+   private static final class Partition {
+      final ConcurrentSkipListSet<IndexKey> byName = new ConcurrentSkipListSet<>();
+      final ConcurrentSkipListSet<IndexKey> byId = new ConcurrentSkipListSet<>();
+   }
+
+   /**
+    * Filter combination, null meaning any value.
+    */
+   private static final class PartitionKey {
+      final String serverType;
+      final Boolean isActive;
+
+      PartitionKey(String serverType, Boolean isActive) {
+         this.serverType = serverType;
+         this.isActive = isActive;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof PartitionKey)) {
+            return false;
+         }
+         PartitionKey other = (PartitionKey) o;
+         return equal(serverType, other.serverType) && equal(isActive, other.isActive);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * (serverType == null ? 0 : serverType.hashCode())
+               + (isActive == null ? 0 : isActive.hashCode());
+      }
+
+      private static boolean equal(Object a, Object b) {
+         return (a == null) ? b == null : a.equals(b);
+      }
+   }
+
+   /**
+    * Sort key of an index entry, the id makes every key unique.
+    */
+   private static final class IndexKey implements Comparable<IndexKey> {
+      final String primary;
+      final long number;
+      final String id;
+
+      IndexKey(String primary, long number, String id) {
+         this.primary = primary;
+         this.number = number;
+         this.id = id;
+      }
+
+      @Override
+      public int compareTo(IndexKey other) {
+         int result = primary.compareTo(other.primary);
+         if (result == 0) {
+            result = (number < other.number) ? -1 : ((number == other.number) ? 0 : 1);
+         }
+         return (result != 0) ? result : id.compareTo(other.id);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return (o instanceof IndexKey) && compareTo((IndexKey) o) == 0;
+      }
+
+      @Override
+      public int hashCode() {
+         return id.hashCode();
+      }
+   }
+}
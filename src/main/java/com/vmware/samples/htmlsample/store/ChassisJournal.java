@@ -0,0 +1,552 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log and snapshot files of the chassis store.
+ *
+ * Mutations are appended to the current log generation ("journal-N.log") and
+ * made durable with group commit: the first writer that finds no flush in
+ * progress writes and forces everything buffered so far, while concurrent
+ * writers wait for that flush instead of forcing the file themselves.
+ *
+ * A checkpoint rotates to a new log generation and writes the full store to
+ * "snapshot-N.dat", where N is the first log generation which is not part of
+ * the snapshot: the chassis objects, then the host bindings. Recovery maps the
+ * newest snapshot and replays the log tail.
+ *
+ * Every record is framed as: payload length (int), CRC32 of the payload (int)
+ * and the {@link ChassisRecord} payload. A torn or corrupted frame ends the
+ * replay of a log file.
+ */
+public class ChassisJournal {
+   private static final Log _logger = LogFactory.getLog(ChassisJournal.class);
+
+   private static final String LOG_PREFIX = "journal-";
+   private static final String LOG_SUFFIX = ".log";
+   private static final String SNAPSHOT_PREFIX = "snapshot-";
+   private static final String SNAPSHOT_SUFFIX = ".dat";
+   private static final String TMP_SUFFIX = ".tmp";
+
+   private static final int SNAPSHOT_MAGIC = 0x43485353; // "CHSS"
+   // Version 1 snapshots have no host bindings.
+   private static final int SNAPSHOT_VERSION_1 = 1;
+   private static final int SNAPSHOT_VERSION = 2;
+   private static final int SNAPSHOT_V1_HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+   private static final int SNAPSHOT_HEADER_SIZE = SNAPSHOT_V1_HEADER_SIZE + 4;
+   private static final int FRAME_HEADER_SIZE = 8;
+   private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+   /**
+    * Receives the recovered state, in log order.
+    */
+   public interface Replay {
+      void put(Chassis chassis);
+
+      void delete(String id);
+
+      /**
+       * Replaces the hosts bound to a chassis.
+       */
+      void bind(String id, List<String> hostIds);
+
+      /**
+       * Called with the id counter stored in the snapshot.
+       */
+      void nextIndex(int nextIndex);
+   }
+
+   private final File _directory;
+
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _flushed = _lock.newCondition();
+
+   // All fields below are guarded by _lock.
+   private FileChannel _channel;
+   private long _generation;
+   private ByteBuffer _pending = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+   private ByteBuffer _spare = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+   private long _appendedBatches;
+   private long _durableBatches;
+   private boolean _flushing;
+   private IOException _failure;
+   private long _recordsInGeneration;
+
+   /**
+    * Constructor.
+    *
+    * @param directory  the directory holding the log and snapshot files,
+    *                   it is created if needed.
+    */
+   public ChassisJournal(File directory) {
+      _directory = directory;
+   }
+
+   /**
+    * Loads the newest snapshot and replays the log generations written after it,
+    * then opens a new log generation for appending.
+    *
+    * @param replay  receives the recovered records.
+    * @return  the number of records replayed from the log files.
+    * @throws IOException if the files cannot be read or the new log cannot be opened.
+    */
+   public long recover(Replay replay) throws IOException {
+      if (!_directory.isDirectory() && !_directory.mkdirs()) {
+         throw new IOException("Could not create journal directory " + _directory);
+      }
+
+      long firstGeneration = 0;
+      File snapshot = newestFile(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+      if (snapshot != null) {
+         firstGeneration = readSnapshot(snapshot, replay);
+      }
+
+      long replayed = 0;
+      long lastGeneration = firstGeneration - 1;
+      for (File logFile : listFiles(LOG_PREFIX, LOG_SUFFIX)) {
+         long generation = generationOf(logFile, LOG_PREFIX, LOG_SUFFIX);
+         if (generation >= firstGeneration) {
+            replayed += replayLog(logFile, replay);
+            lastGeneration = Math.max(lastGeneration, generation);
+         }
+      }
+      deleteObsoleteFiles(firstGeneration);
+
+      _lock.lock();
+      try {
+         openGeneration(lastGeneration + 1);
+      } finally {
+         _lock.unlock();
+      }
+      return replayed;
+   }
+
+   /**
+    * Appends records to the log and returns once they are durable.
+    * The records of one call are always flushed together.
+    *
+    * @param records the records to append.
+    * @throws IOException if the log could not be written, the journal refuses
+    *          any further append after a write failure.
+    */
+   public void append(Collection<ChassisRecord> records) throws IOException {
+      _lock.lock();
+      try {
+         if (_failure != null) {
+            throw new IOException("Chassis journal failed earlier", _failure);
+         }
+         for (ChassisRecord record : records) {
+            writeFrame(record);
+         }
+         _recordsInGeneration += records.size();
+         long batch = ++_appendedBatches;
+
+         while (_durableBatches < batch) {
+            if (_failure != null) {
+               throw new IOException("Could not write the chassis journal", _failure);
+            }
+            if (_flushing) {
+               _flushed.awaitUninterruptibly();
+            } else {
+               flushPending();
+            }
+         }
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Appends a single record, see {@link #append(Collection)}.
+    */
+   public void append(ChassisRecord record) throws IOException {
+      append(Collections.singletonList(record));
+   }
+
+   /**
+    * @return true if the current log generation holds any record.
+    */
+   public boolean hasChangesSinceRotate() {
+      _lock.lock();
+      try {
+         return _recordsInGeneration > 0;
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Closes the current log generation and opens the next one. The caller must
+    * make sure no append is in progress, the returned generation is the first one
+    * which will not be covered by a snapshot taken of the current state.
+    *
+    * @return the new log generation.
+    */
+   public long rotate() throws IOException {
+      _lock.lock();
+      try {
+         while (_flushing) {
+            _flushed.awaitUninterruptibly();
+         }
+         if (_pending.position() > 0) {
+            flushPending();
+         }
+         if (_failure != null) {
+            throw new IOException("Chassis journal failed earlier", _failure);
+         }
+         _channel.close();
+         openGeneration(_generation + 1);
+         return _generation;
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Writes a snapshot of the given chassis objects and host bindings, and
+    * removes the files it makes obsolete.
+    *
+    * @param objects          the full store content at the time of rotation.
+    * @param bindings         the host ids of each chassis id at the time of rotation.
+    * @param nextIndex        the id counter at the time of rotation.
+    * @param firstGeneration  the generation returned by {@link #rotate()}.
+    */
+   public void writeSnapshot(Collection<Chassis> objects, Map<String, Set<String>> bindings,
+         int nextIndex, long firstGeneration) throws IOException {
+      File target = new File(_directory, SNAPSHOT_PREFIX + firstGeneration + SNAPSHOT_SUFFIX);
+      File tmp = new File(_directory, target.getName() + TMP_SUFFIX);
+
+      FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      try {
+         ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+         header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+               .putLong(firstGeneration).putInt(nextIndex).putInt(objects.size())
+               .putInt(bindings.size());
+         header.flip();
+         writeFully(channel, header);
+
+         ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+         CRC32 crc = new CRC32();
+         for (Chassis chassis : objects) {
+            chunk = putSnapshotFrame(channel, chunk, ChassisRecord.put(chassis), crc);
+         }
+         for (Map.Entry<String, Set<String>> binding : bindings.entrySet()) {
+            chunk = putSnapshotFrame(channel, chunk,
+                  ChassisRecord.bind(binding.getKey(), binding.getValue()), crc);
+         }
+         chunk.flip();
+         writeFully(channel, chunk);
+         channel.force(true);
+      } finally {
+         channel.close();
+      }
+
+      Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      deleteObsoleteFiles(firstGeneration);
+   }
+
+   /**
+    * Flushes and closes the current log generation.
+    */
+   public void close() throws IOException {
+      _lock.lock();
+      try {
+         while (_flushing) {
+            _flushed.awaitUninterruptibly();
+         }
+         if (_pending.position() > 0 && _failure == null) {
+            flushPending();
+         }
+         if (_channel != null) {
+            _channel.close();
+            _channel = null;
+         }
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Writes everything buffered so far as the flush leader. Must be called with
+    * _lock held and no flush in progress; the lock is released during the I/O so
+    * that other writers can keep buffering the next group.
+    */
+   private void flushPending() {
+      ByteBuffer batch = _pending;
+      _pending = _spare;
+      _spare = batch;
+      long target = _appendedBatches;
+      FileChannel channel = _channel;
+      _flushing = true;
+
+      _lock.unlock();
+      IOException failure = null;
+      try {
+         batch.flip();
+         writeFully(channel, batch);
+         channel.force(false);
+      } catch (IOException e) {
+         failure = e;
+      } finally {
+         batch.clear();
+         _lock.lock();
+         _flushing = false;
+         if (failure == null) {
+            _durableBatches = Math.max(_durableBatches, target);
+         } else {
+            _logger.error("Could not write the chassis journal", failure);
+            _failure = failure;
+         }
+         _flushed.signalAll();
+      }
+   }
+
+   /**
+    * Adds a frame to a snapshot chunk, after writing the chunk if it is full.
+    *
+    * @return the chunk to add the next frames to.
+    */
+   private static ByteBuffer putSnapshotFrame(FileChannel channel, ByteBuffer chunk,
+         ChassisRecord record, CRC32 crc) throws IOException {
+      int frameSize = FRAME_HEADER_SIZE + record.encodedSize();
+      if (chunk.remaining() < frameSize) {
+         chunk.flip();
+         writeFully(channel, chunk);
+         chunk = ByteBuffer.allocate(Math.max(WRITE_CHUNK_SIZE, frameSize));
+      }
+      putFrame(chunk, record, crc);
+      return chunk;
+   }
+
+   private void writeFrame(ChassisRecord record) {
+      int frameSize = FRAME_HEADER_SIZE + record.encodedSize();
+      if (_pending.remaining() < frameSize) {
+         ByteBuffer bigger = ByteBuffer.allocate(
+               Math.max(_pending.capacity() * 2, _pending.position() + frameSize));
+         _pending.flip();
+         bigger.put(_pending);
+         _pending = bigger;
+      }
+      putFrame(_pending, record, new CRC32());
+   }
+
+   private static void putFrame(ByteBuffer buffer, ChassisRecord record, CRC32 crc) {
+      int start = buffer.position();
+      buffer.position(start + FRAME_HEADER_SIZE);
+      record.writeTo(buffer);
+      int length = buffer.position() - start - FRAME_HEADER_SIZE;
+
+      crc.reset();
+      crc.update(buffer.array(), buffer.arrayOffset() + start + FRAME_HEADER_SIZE, length);
+      buffer.putInt(start, length);
+      buffer.putInt(start + 4, (int) crc.getValue());
+   }
+
+   /**
+    * Reads the frame at the buffer's position.
+    *
+    * @return the decoded record or null if the frame is truncated or corrupted.
+    */
+   private static ChassisRecord readFrame(ByteBuffer buffer, byte[][] frame,
+         ChassisRecord.Scratch scratch, CRC32 crc) {
+      if (buffer.remaining() < FRAME_HEADER_SIZE) {
+         return null;
+      }
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) {
+         return null;
+      }
+      if (frame[0].length < length) {
+         frame[0] = new byte[Math.max(length, frame[0].length * 2)];
+      }
+      buffer.get(frame[0], 0, length);
+      crc.reset();
+      crc.update(frame[0], 0, length);
+      if ((int) crc.getValue() != checksum) {
+         return null;
+      }
+      try {
+         return ChassisRecord.readFrom(ByteBuffer.wrap(frame[0], 0, length), scratch);
+      } catch (RuntimeException e) {
+         return null;
+      }
+   }
+
+   private long readSnapshot(File snapshot, Replay replay) throws IOException {
+      FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ);
+      try {
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         if (buffer.remaining() < SNAPSHOT_V1_HEADER_SIZE
+               || buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Invalid chassis snapshot " + snapshot);
+         }
+         int version = buffer.getInt();
+         if ((version != SNAPSHOT_VERSION_1 && version != SNAPSHOT_VERSION)
+               || (version == SNAPSHOT_VERSION && buffer.remaining() < SNAPSHOT_HEADER_SIZE - 8)) {
+            throw new IOException("Invalid chassis snapshot " + snapshot);
+         }
+         long firstGeneration = buffer.getLong();
+         int nextIndex = buffer.getInt();
+         int count = buffer.getInt();
+         int bindingCount = (version == SNAPSHOT_VERSION) ? buffer.getInt() : 0;
+
+         byte[][] frame = { new byte[256] };
+         ChassisRecord.Scratch scratch = new ChassisRecord.Scratch();
+         CRC32 crc = new CRC32();
+         for (int i = 0; i < count; i++) {
+            ChassisRecord record = readFrame(buffer, frame, scratch, crc);
+            if (record == null || record.op != ChassisRecord.PUT) {
+               throw new IOException("Corrupted chassis snapshot " + snapshot + " at record " + i);
+            }
+            replay.put(record.chassis);
+         }
+         for (int i = 0; i < bindingCount; i++) {
+            ChassisRecord record = readFrame(buffer, frame, scratch, crc);
+            if (record == null || record.op != ChassisRecord.BIND) {
+               throw new IOException("Corrupted chassis snapshot " + snapshot
+                     + " at binding " + i);
+            }
+            replay.bind(record.id, record.hostIds);
+         }
+         replay.nextIndex(nextIndex);
+         _logger.info(String.format("Loaded %d chassis objects from %s", count, snapshot));
+         return firstGeneration;
+      } finally {
+         channel.close();
+      }
+   }
+
+   private long replayLog(File logFile, Replay replay) throws IOException {
+      FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+      try {
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         byte[][] frame = { new byte[256] };
+         ChassisRecord.Scratch scratch = new ChassisRecord.Scratch();
+         CRC32 crc = new CRC32();
+
+         long count = 0;
+         ChassisRecord record;
+         while ((record = readFrame(buffer, frame, scratch, crc)) != null) {
+            if (record.op == ChassisRecord.PUT) {
+               replay.put(record.chassis);
+            } else if (record.op == ChassisRecord.BIND) {
+               replay.bind(record.id, record.hostIds);
+            } else {
+               replay.delete(record.id);
+            }
+            count++;
+         }
+         if (buffer.hasRemaining()) {
+            _logger.warn(String.format("Ignoring a torn record at the end of %s", logFile));
+         }
+         return count;
+      } finally {
+         channel.close();
+      }
+   }
+
+   private void openGeneration(long generation) throws IOException {
+      File logFile = new File(_directory, LOG_PREFIX + generation + LOG_SUFFIX);
+      _channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      _generation = generation;
+      _recordsInGeneration = 0;
+   }
+
+   /**
+    * Deletes the snapshots and logs older than the given generation. Deletion
+    * is best effort, a file which is still mapped may be removed next time.
+    */
+   private void deleteObsoleteFiles(long firstGeneration) {
+      List<File> obsolete = new ArrayList<>();
+      for (File file : listFiles(LOG_PREFIX, LOG_SUFFIX)) {
+         if (generationOf(file, LOG_PREFIX, LOG_SUFFIX) < firstGeneration) {
+            obsolete.add(file);
+         }
+      }
+      for (File file : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+         if (generationOf(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < firstGeneration) {
+            obsolete.add(file);
+         }
+      }
+      for (File file : obsolete) {
+         if (!file.delete()) {
+            _logger.debug("Could not delete obsolete journal file " + file);
+         }
+      }
+   }
+
+   private File newestFile(String prefix, String suffix) {
+      File newest = null;
+      for (File file : listFiles(prefix, suffix)) {
+         newest = file;
+      }
+      return newest;
+   }
+
+   /**
+    * @return the files with the given prefix and suffix sorted by generation.
+    */
+   private List<File> listFiles(final String prefix, final String suffix) {
+      List<File> files = new ArrayList<>();
+      File[] all = _directory.listFiles();
+      if (all != null) {
+         for (File file : all) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix)
+                  && generationOf(file, prefix, suffix) >= 0) {
+               files.add(file);
+            }
+         }
+      }
+      Collections.sort(files, new Comparator<File>() {
+         @Override
+         public int compare(File a, File b) {
+            long ga = generationOf(a, prefix, suffix);
+            long gb = generationOf(b, prefix, suffix);
+            return (ga < gb) ? -1 : ((ga == gb) ? 0 : 1);
+         }
+      });
+      return files;
+   }
+
+   private static long generationOf(File file, String prefix, String suffix) {
+      String name = file.getName();
+      try {
+         return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+}
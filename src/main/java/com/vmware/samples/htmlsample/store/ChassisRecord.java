@@ -0,0 +1,198 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary encoding of a single chassis mutation, shared by the write-ahead log
+ * and the snapshot file.
+ *
+ * A record is laid out as: op (1 byte), id, and for PUT records also name,
+ * dimensions, serverType (length prefixed UTF-8, length -1 for null) and
+ * isActive (1 byte). BIND records have the number of hosts (int) and the
+ * host ids instead.
+ */
+public final class ChassisRecord {
+   public static final byte PUT = 1;
+   public static final byte DELETE = 2;
+   public static final byte BIND = 3;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   public final byte op;
+   public final String id;
+   public final Chassis chassis;
+   // The hosts bound to the chassis by a BIND record, null otherwise.
+   public final List<String> hostIds;
+
+   private ChassisRecord(byte op, String id, Chassis chassis, List<String> hostIds) {
+      this.op = op;
+      this.id = id;
+      this.chassis = chassis;
+      this.hostIds = hostIds;
+   }
+
+   /**
+    * Creates a record which stores the full state of a chassis object.
+    */
+   public static ChassisRecord put(Chassis chassis) {
+      return new ChassisRecord(PUT, chassis.id, chassis, null);
+   }
+
+   /**
+    * Creates a record which removes a chassis object.
+    */
+   public static ChassisRecord delete(String id) {
+      return new ChassisRecord(DELETE, id, null, null);
+   }
+
+   /**
+    * Creates a record which replaces the hosts bound to a chassis object.
+    */
+   public static ChassisRecord bind(String id, Collection<String> hostIds) {
+      return new ChassisRecord(BIND, id, null,
+            Collections.unmodifiableList(new ArrayList<>(hostIds)));
+   }
+
+   /**
+    * @return the number of bytes {@link #writeTo(ByteBuffer)} will use.
+    */
+   public int encodedSize() {
+      int size = 1 + sizeOf(id);
+      if (op == PUT) {
+         size += sizeOf(chassis.name) + sizeOf(chassis.dimensions)
+               + sizeOf(chassis.serverType) + 1;
+      } else if (op == BIND) {
+         size += 4;
+         for (String hostId : hostIds) {
+            size += sizeOf(hostId);
+         }
+      }
+      return size;
+   }
+
+   /**
+    * Encodes this record at the buffer's current position.
+    */
+   public void writeTo(ByteBuffer buffer) {
+      buffer.put(op);
+      putString(buffer, id);
+      if (op == PUT) {
+         putString(buffer, chassis.name);
+         putString(buffer, chassis.dimensions);
+         putString(buffer, chassis.serverType);
+         buffer.put((byte) (chassis.isActive ? 1 : 0));
+      } else if (op == BIND) {
+         buffer.putInt(hostIds.size());
+         for (String hostId : hostIds) {
+            putString(buffer, hostId);
+         }
+      }
+   }
+
+   /**
+    * Decodes a record from the buffer's current position.
+    *
+    * @param buffer  the source buffer.
+    * @param scratch reusable array used to copy string bytes, may be replaced
+    *                with a bigger one, see {@link Scratch}.
+    * @return the decoded record.
+    * @throws IllegalArgumentException if the op code is unknown.
+    */
+   public static ChassisRecord readFrom(ByteBuffer buffer, Scratch scratch) {
+      byte op = buffer.get();
+      String id = getString(buffer, scratch);
+      if (op == DELETE) {
+         return delete(id);
+      }
+      if (op == BIND) {
+         int count = buffer.getInt();
+         List<String> hostIds = new ArrayList<>(count);
+         for (int i = 0; i < count; i++) {
+            hostIds.add(getString(buffer, scratch));
+         }
+         return new ChassisRecord(BIND, id, null, Collections.unmodifiableList(hostIds));
+      }
+      if (op != PUT) {
+         throw new IllegalArgumentException("Unknown chassis record op: " + op);
+      }
+      Chassis chassis = new Chassis();
+      chassis.id = id;
+      chassis.name = getString(buffer, scratch);
+      chassis.dimensions = getString(buffer, scratch);
+      chassis.serverType = getString(buffer, scratch);
+      chassis.isActive = buffer.get() != 0;
+      return put(chassis);
+   }
+
+   private static int sizeOf(String value) {
+      return 4 + (value == null ? 0 : utf8Length(value));
+   }
+
+   private static void putString(ByteBuffer buffer, String value) {
+      if (value == null) {
+         buffer.putInt(-1);
+         return;
+      }
+      byte[] bytes = value.getBytes(UTF_8);
+      buffer.putInt(bytes.length);
+      buffer.put(bytes);
+   }
+
+   private static String getString(ByteBuffer buffer, Scratch scratch) {
+      int length = buffer.getInt();
+      if (length < 0) {
+         return null;
+      }
+      byte[] bytes = scratch.get(length);
+      buffer.get(bytes, 0, length);
+      return new String(bytes, 0, length, UTF_8);
+   }
+
+   /**
+    * Computes the UTF-8 length of a string without encoding it.
+    */
+   private static int utf8Length(String value) {
+      int length = 0;
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c < 0x80) {
+            length += 1;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+               && Character.isLowSurrogate(value.charAt(i + 1))) {
+            length += 4;
+            i++;
+         } else if (Character.isSurrogate(c)) {
+            // Unpaired surrogates are encoded as the '?' replacement byte.
+            length += 1;
+         } else {
+            length += 3;
+         }
+      }
+      return length;
+   }
+
+   /**
+    * Growable byte array reused while decoding many records.
+    */
+   public static final class Scratch {
+      private byte[] _bytes = new byte[256];
+
+      byte[] get(int length) {
+         if (_bytes.length < length) {
+            _bytes = new byte[Math.max(length, _bytes.length * 2)];
+         }
+         return _bytes;
+      }
+   }
+}
@@ -0,0 +1,47 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, versioned view of all chassis objects of the store.
+ *
+ * A snapshot is shared by all readers until the store commits a new mutation,
+ * so reading it requires neither locking nor copying.
+ */
+public final class ChassisSnapshot {
+   public static final ChassisSnapshot EMPTY =
+         new ChassisSnapshot(-1, Collections.<Chassis>emptyList());
+
+   /**
+    * The store version this snapshot includes all mutations of.
+    */
+   public final long version;
+
+   /**
+    * Unmodifiable list of the chassis objects. With the compact storage engine
+    * it holds encoded rows, and the objects are materialized when read.
+    */
+   public final List<Chassis> objects;
+
+   private ChassisSnapshot(long version, List<Chassis> objects) {
+      this.version = version;
+      this.objects = objects;
+   }
+
+   /**
+    * Captures the given chassis objects.
+    *
+    * @param version the store version read before the objects were collected.
+    * @param objects a list of the current chassis objects, see
+    *                ChassisTable.snapshot(), owned by the snapshot from now on.
+    * @return the new snapshot.
+    */
+   public static ChassisSnapshot of(long version, List<Chassis> objects) {
+      return new ChassisSnapshot(version, Collections.unmodifiableList(objects));
+   }
+}
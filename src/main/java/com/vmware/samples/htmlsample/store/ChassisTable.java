@@ -0,0 +1,52 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+
+import java.util.List;
+
+/**
+ * Primary storage of the chassis objects, keyed by id.
+ *
+ * Implementations are thread-safe. Whether the returned objects are the stored
+ * instances or copies depends on the implementation, callers must not modify
+ * them.
+ */
+public interface ChassisTable {
+
+   /**
+    * @return  the chassis object with the given id, or null.
+    */
+   Chassis get(String id);
+
+   boolean containsKey(String id);
+
+   /**
+    * Stores a chassis object under its id.
+    *
+    * @return  the chassis object previously stored under that id, or null.
+    */
+   Chassis put(Chassis chassis);
+
+   /**
+    * @return  the removed chassis object, or null if there was none.
+    */
+   Chassis remove(String id);
+
+   int size();
+
+   /**
+    * @return  a new list with all chassis objects, in no particular order.
+    */
+   List<Chassis> values();
+
+   /**
+    * @return  an unmodifiable list of the current chassis objects, in no
+    *          particular order, which later mutations do not change. The
+    *          objects may be materialized each time they are read.
+    */
+   List<Chassis> snapshot();
+
+   void clear();
+}
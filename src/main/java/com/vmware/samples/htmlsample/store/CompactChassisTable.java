@@ -0,0 +1,276 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Column-oriented chassis table for large stores.
+ *
+ * Rows live in fixed-size chunks of primitive and reference columns instead of
+ * one object per chassis. The low-cardinality dimensions and serverType fields
+ * are dictionary-encoded into int columns, so each distinct value is kept once.
+ * Chassis objects are only materialized when they are read. Removed rows are
+ * recycled through a free list.
+ *
+ * A snapshot copies the encoded columns of the rows, not chassis objects, and
+ * materializes a chassis object each time one of its elements is read.
+ */
+public class CompactChassisTable implements ChassisTable {
+   private static final int CHUNK_SHIFT = 10;
+   private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+   private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   private final StringDictionary _dimensions = new StringDictionary();
+   private final StringDictionary _serverTypes = new StringDictionary();
+
+   // All fields below are guarded by _lock.
+   private final Map<String, Integer> _rows;
+   private String[][] _ids = new String[0][];
+   private String[][] _names = new String[0][];
+   private int[][] _dimensionCodes = new int[0][];
+   private int[][] _serverTypeCodes = new int[0][];
+   private boolean[][] _active = new boolean[0][];
+   // Number of rows ever allocated, including the free ones.
+   private int _rowCount;
+   private int[] _freeRows = new int[16];
+   private int _freeCount;
+
+   public CompactChassisTable(int initialCapacity) {
+      _rows = new HashMap<>(initialCapacity);
+   }
+
+   @Override
+   public Chassis get(String id) {
+      _lock.readLock().lock();
+      try {
+         Integer row = _rows.get(id);
+         return (row == null) ? null : materialize(row);
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public boolean containsKey(String id) {
+      _lock.readLock().lock();
+      try {
+         return _rows.containsKey(id);
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public Chassis put(Chassis chassis) {
+      // Encoding does not need the table lock.
+      int dimensions = _dimensions.encode(chassis.dimensions);
+      int serverType = _serverTypes.encode(chassis.serverType);
+
+      _lock.writeLock().lock();
+      try {
+         Integer row = _rows.get(chassis.id);
+         Chassis previous = null;
+         if (row == null) {
+            row = allocateRow();
+            _ids[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = chassis.id;
+            _rows.put(chassis.id, row);
+         } else {
+            previous = materialize(row);
+         }
+         int chunk = row >>> CHUNK_SHIFT;
+         int offset = row & CHUNK_MASK;
+         _names[chunk][offset] = chassis.name;
+         _dimensionCodes[chunk][offset] = dimensions;
+         _serverTypeCodes[chunk][offset] = serverType;
+         _active[chunk][offset] = chassis.isActive;
+         return previous;
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public Chassis remove(String id) {
+      _lock.writeLock().lock();
+      try {
+         Integer row = _rows.remove(id);
+         if (row == null) {
+            return null;
+         }
+         Chassis removed = materialize(row);
+         _ids[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = null;
+         _names[row >>> CHUNK_SHIFT][row & CHUNK_MASK] = null;
+         if (_freeCount == _freeRows.length) {
+            _freeRows = Arrays.copyOf(_freeRows, _freeCount * 2);
+         }
+         _freeRows[_freeCount++] = row;
+         return removed;
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   @Override
+   public int size() {
+      _lock.readLock().lock();
+      try {
+         return _rows.size();
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public List<Chassis> values() {
+      _lock.readLock().lock();
+      try {
+         List<Chassis> values = new ArrayList<>(_rows.size());
+         for (int row = 0; row < _rowCount; row++) {
+            // Free rows have no id.
+            if (_ids[row >>> CHUNK_SHIFT][row & CHUNK_MASK] != null) {
+               values.add(materialize(row));
+            }
+         }
+         return values;
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public List<Chassis> snapshot() {
+      _lock.readLock().lock();
+      try {
+         int size = _rows.size();
+         String[] ids = new String[size];
+         String[] names = new String[size];
+         int[] dimensionCodes = new int[size];
+         int[] serverTypeCodes = new int[size];
+         boolean[] active = new boolean[size];
+         int index = 0;
+         for (int row = 0; row < _rowCount; row++) {
+            int chunk = row >>> CHUNK_SHIFT;
+            int offset = row & CHUNK_MASK;
+            // Free rows have no id.
+            if (_ids[chunk][offset] != null) {
+               ids[index] = _ids[chunk][offset];
+               names[index] = _names[chunk][offset];
+               dimensionCodes[index] = _dimensionCodes[chunk][offset];
+               serverTypeCodes[index] = _serverTypeCodes[chunk][offset];
+               active[index] = _active[chunk][offset];
+               index++;
+            }
+         }
+         return new Snapshot(ids, names, dimensionCodes, serverTypeCodes, active);
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   @Override
+   public void clear() {
+      _lock.writeLock().lock();
+      try {
+         _rows.clear();
+         _ids = new String[0][];
+         _names = new String[0][];
+         _dimensionCodes = new int[0][];
+         _serverTypeCodes = new int[0][];
+         _active = new boolean[0][];
+         _rowCount = 0;
+         _freeCount = 0;
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Builds the chassis object of a row. Must be called with the lock held.
+    */
+   private Chassis materialize(int row) {
+      int chunk = row >>> CHUNK_SHIFT;
+      int offset = row & CHUNK_MASK;
+      Chassis chassis = new Chassis();
+      chassis.id = _ids[chunk][offset];
+      chassis.name = _names[chunk][offset];
+      chassis.dimensions = _dimensions.decode(_dimensionCodes[chunk][offset]);
+      chassis.serverType = _serverTypes.decode(_serverTypeCodes[chunk][offset]);
+      chassis.isActive = _active[chunk][offset];
+      return chassis;
+   }
+
+   /**
+    * Takes a free row, or appends one, adding a chunk when needed.
+    * Must be called with the write lock held.
+    */
+   private int allocateRow() {
+      if (_freeCount > 0) {
+         return _freeRows[--_freeCount];
+      }
+      int row = _rowCount++;
+      int chunk = row >>> CHUNK_SHIFT;
+      if (chunk == _ids.length) {
+         _ids = Arrays.copyOf(_ids, chunk + 1);
+         _names = Arrays.copyOf(_names, chunk + 1);
+         _dimensionCodes = Arrays.copyOf(_dimensionCodes, chunk + 1);
+         _serverTypeCodes = Arrays.copyOf(_serverTypeCodes, chunk + 1);
+         _active = Arrays.copyOf(_active, chunk + 1);
+         _ids[chunk] = new String[CHUNK_SIZE];
+         _names[chunk] = new String[CHUNK_SIZE];
+         _dimensionCodes[chunk] = new int[CHUNK_SIZE];
+         _serverTypeCodes[chunk] = new int[CHUNK_SIZE];
+         _active[chunk] = new boolean[CHUNK_SIZE];
+      }
+      return row;
+   }
+
+   /**
+    * The encoded columns of the rows at the time of a snapshot.
+    */
+   private final class Snapshot extends AbstractList<Chassis> implements RandomAccess {
+      private final String[] _snapshotIds;
+      private final String[] _snapshotNames;
+      private final int[] _snapshotDimensionCodes;
+      private final int[] _snapshotServerTypeCodes;
+      private final boolean[] _snapshotActive;
+
+      Snapshot(String[] ids, String[] names, int[] dimensionCodes, int[] serverTypeCodes,
+            boolean[] active) {
+         _snapshotIds = ids;
+         _snapshotNames = names;
+         _snapshotDimensionCodes = dimensionCodes;
+         _snapshotServerTypeCodes = serverTypeCodes;
+         _snapshotActive = active;
+      }
+
+      @Override
+      public Chassis get(int index) {
+         // The dictionaries are append-only, the codes stay valid.
+         Chassis chassis = new Chassis();
+         chassis.id = _snapshotIds[index];
+         chassis.name = _snapshotNames[index];
+         chassis.dimensions = _dimensions.decode(_snapshotDimensionCodes[index]);
+         chassis.serverType = _serverTypes.decode(_snapshotServerTypeCodes[index]);
+         chassis.isActive = _snapshotActive[index];
+         return chassis;
+      }
+
+      @Override
+      public int size() {
+         return _snapshotIds.length;
+      }
+   }
+}
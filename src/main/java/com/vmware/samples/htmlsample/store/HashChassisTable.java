@@ -0,0 +1,64 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import com.vmware.samples.htmlsample.model.Chassis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chassis table keeping the chassis objects as they are, in a concurrent map.
+ */
+public class HashChassisTable implements ChassisTable {
+
+   // The key is a chassis object's id and the value is the chassis object.
+   private final ConcurrentMap<String, Chassis> _objects;
+
+   public HashChassisTable(int initialCapacity) {
+      _objects = new ConcurrentHashMap<String, Chassis>(initialCapacity);
+   }
+
+   @Override
+   public Chassis get(String id) {
+      return _objects.get(id);
+   }
+
+   @Override
+   public boolean containsKey(String id) {
+      return _objects.containsKey(id);
+   }
+
+   @Override
+   public Chassis put(Chassis chassis) {
+      return _objects.put(chassis.id, chassis);
+   }
+
+   @Override
+   public Chassis remove(String id) {
+      return _objects.remove(id);
+   }
+
+   @Override
+   public int size() {
+      return _objects.size();
+   }
+
+   @Override
+   public List<Chassis> values() {
+      return new ArrayList<Chassis>(_objects.values());
+   }
+
+   @Override
+   public List<Chassis> snapshot() {
+      return Collections.unmodifiableList(values());
+   }
+
+   @Override
+   public void clear() {
+      _objects.clear();
+   }
+}
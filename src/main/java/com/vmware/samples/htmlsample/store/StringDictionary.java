@@ -0,0 +1,62 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+
+package com.vmware.samples.htmlsample.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append-only dictionary assigning a small int code to each distinct string.
+ *
+ * Meant for low-cardinality values: codes are never reclaimed, so every distinct
+ * value ever encoded stays in memory. Null is encoded as -1.
+ */
+public class StringDictionary {
+   public static final int NULL_CODE = -1;
+
+   private final ConcurrentMap<String, Integer> _codes = new ConcurrentHashMap<>();
+   // Code to value, replaced by a bigger copy when full.
+   private volatile String[] _values = new String[16];
+   private int _size;
+
+   /**
+    * @return  the code of the value, assigned on first use.
+    */
+   public int encode(String value) {
+      if (value == null) {
+         return NULL_CODE;
+      }
+      Integer code = _codes.get(value);
+      if (code != null) {
+         return code;
+      }
+      synchronized (this) {
+         code = _codes.get(value);
+         if (code == null) {
+            if (_size == _values.length) {
+               _values = Arrays.copyOf(_values, _size * 2);
+            }
+            code = _size;
+            // The value is published before its code can be looked up.
+            _values[_size++] = value;
+            _codes.put(value, code);
+         }
+         return code;
+      }
+   }
+
+   /**
+    * @return  the value of a code returned by {@link #encode(String)}.
+    */
+   public String decode(int code) {
+      return (code == NULL_CODE) ? null : _values[code];
+   }
+
+   /**
+    * @return  the number of distinct values.
+    */
+   public int size() {
+      return _codes.size();
+   }
+}
@@ -0,0 +1,368 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vmware.samples.htmlsample.model.Host;
+import com.vmware.vise.usersession.ServerInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * VimObjectService which caches the retrieved hosts of each vcenter session.
+ *
+ * A result younger than ttlMillis is served from memory. An older one is still
+ * served for up to staleMillis more while a background thread refreshes it, so
+ * a repeated view does not wait for the vcenter. Beyond that the hosts are
+ * retrieved again. The cache keeps at most maxEntries results and evicts the
+ * least recently used one. Other properties are not cached.
+ *
+ * A result whose session is invalidated while it is loaded or refreshed is not
+ * cached, so the hosts of an ended session are not served again.
+ *
+ * It is meant for a VimObjectServiceImpl which does not mirror the hosts: the
+ * mirrored hosts are current and read from memory, the cache would only delay
+ * their changes.
+ */
+public class CachingVimObjectService implements VimObjectService {
+   private static final Log _logger = LogFactory.getLog(CachingVimObjectService.class);
+
+   private static final long DEFAULT_TTL_MILLIS = 30000;
+   private static final long DEFAULT_STALE_MILLIS = 120000;
+   private static final int DEFAULT_MAX_ENTRIES = 1000;
+   private static final int REFRESH_THREADS = 2;
+   private static final int REFRESH_QUEUE_CAPACITY = 100;
+   // Number of ended sessions remembered, see _invalidatedSessions.
+   private static final int MAX_INVALIDATED_SESSIONS = 1000;
+
+   private final VimObjectService _vimObjectService;
+
+   private long _ttlMillis = DEFAULT_TTL_MILLIS;
+   private long _staleMillis = DEFAULT_STALE_MILLIS;
+   private int _maxEntries = DEFAULT_MAX_ENTRIES;
+
+   // Cached results in access order, guarded by its own monitor.
+   private final LinkedHashMap<CacheKey, CacheEntry> _entries =
+         new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+               return size() > _maxEntries;
+            }
+         };
+   // Number of session invalidations so far, guarded by _entries. A load only
+   // caches its result if its session was not invalidated since it started.
+   private long _invalidations;
+   // The value of _invalidations when each recently ended session was
+   // invalidated, oldest first, guarded by _entries.
+   private final LinkedHashMap<String, Long> _invalidatedSessions =
+         new LinkedHashMap<String, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+               if (size() > MAX_INVALIDATED_SESSIONS) {
+                  _forgottenInvalidations = eldest.getValue();
+                  return true;
+               }
+               return false;
+            }
+         };
+   // The invalidation of the last session removed from _invalidatedSessions.
+   private long _forgottenInvalidations;
+   private ThreadPoolExecutor _refreshExecutor;
+
+   /**
+    * Constructor.
+    *
+    * @param vimObjectService the service which actually queries the vcenters.
+    */
+   public CachingVimObjectService(VimObjectService vimObjectService) {
+      _vimObjectService = vimObjectService;
+   }
+
+   /**
+    * @param ttlMillis how long a result is served without being refreshed.
+    */
+   public void setTtlMillis(long ttlMillis) {
+      _ttlMillis = ttlMillis;
+   }
+
+   /**
+    * @param staleMillis how long an expired result is still served while it is
+    *                    refreshed in the background.
+    */
+   public void setStaleMillis(long staleMillis) {
+      _staleMillis = staleMillis;
+   }
+
+   /**
+    * @param maxEntries maximum number of cached results.
+    */
+   public void setMaxEntries(int maxEntries) {
+      _maxEntries = maxEntries;
+   }
+
+   /**
+    * Bean init method defined in bundle-context.xml.
+    */
+   public void init() {
+      _refreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_CAPACITY),
+            new ThreadFactory() {
+               @Override
+               public Thread newThread(Runnable runnable) {
+                  Thread thread = new Thread(runnable, "host-cache-refresh");
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
+      _refreshExecutor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Bean destroy method defined in bundle-context.xml.
+    */
+   public void destroy() {
+      if (_refreshExecutor != null) {
+         _refreshExecutor.shutdownNow();
+      }
+      synchronized (_entries) {
+         _entries.clear();
+      }
+   }
+
+   @Override
+   public List<Map<String, Object>> retrieveObjectProperties(ServerInfo serverInfo,
+         String vSphereObject, String vSphereObjectProperties[]) {
+      return _vimObjectService.retrieveObjectProperties(serverInfo, vSphereObject,
+            vSphereObjectProperties);
+   }
+
+   @Override
+   public void retrieveObjectProperties(ServerInfo serverInfo, String vSphereObject,
+         String vSphereObjectProperties[], PropertyPageHandler handler) {
+      _vimObjectService.retrieveObjectProperties(serverInfo, vSphereObject,
+            vSphereObjectProperties, handler);
+   }
+
+   @Override
+   public Map<String, List<Map<String, Object>>> retrieveObjectProperties(
+         ServerInfo serverInfo, Map<String, String[]> vSphereObjectProperties) {
+      return _vimObjectService.retrieveObjectProperties(serverInfo, vSphereObjectProperties);
+   }
+
+   @Override
+   public List<Host> retrieveHosts(ServerInfo serverInfoObject) {
+      return getHosts(serverInfoObject, null);
+   }
+
+   @Override
+   public List<Host> retrieveHosts(ServerInfo serverInfoObject, List<String> hostIds) {
+      return getHosts(serverInfoObject, hostIds);
+   }
+
+   /**
+    * Drops the results cached for a vcenter session, then lets the wrapped
+    * service release what it holds for the session.
+    */
+   @Override
+   public void invalidateSession(ServerInfo serverInfo) {
+      int removed = 0;
+      synchronized (_entries) {
+         String session = CacheKey.session(serverInfo);
+         _invalidatedSessions.remove(session);
+         _invalidatedSessions.put(session, ++_invalidations);
+         Iterator<CacheKey> keys = _entries.keySet().iterator();
+         while (keys.hasNext()) {
+            if (keys.next().isSession(serverInfo)) {
+               keys.remove();
+               removed++;
+            }
+         }
+      }
+      if (removed > 0) {
+         _logger.debug(String.format("Dropped %d cached results of vCenter %s",
+               removed, serverInfo.name));
+      }
+      _vimObjectService.invalidateSession(serverInfo);
+   }
+
+   /**
+    * Serves the hosts from the cache, refreshing or loading them as needed.
+    *
+    * @param hostIds the requested hosts, or null for all hosts.
+    */
+   private List<Host> getHosts(final ServerInfo serverInfo, final List<String> hostIds) {
+      VimObjectServiceImpl.paramsNotNull(serverInfo);
+      final CacheKey key = new CacheKey(serverInfo, hostIds);
+      final CacheEntry entry;
+      final long invalidations;
+      synchronized (_entries) {
+         entry = _entries.get(key);
+         invalidations = _invalidations;
+      }
+
+      long now = System.nanoTime();
+      if (entry != null) {
+         long age = TimeUnit.NANOSECONDS.toMillis(now - entry.loadedNanos);
+         if (age < _ttlMillis) {
+            return copy(entry.hosts);
+         }
+         if (age < _ttlMillis + _staleMillis) {
+            if (entry.refreshing.compareAndSet(false, true)) {
+               refresh(key, entry, serverInfo, hostIds, invalidations);
+            }
+            return copy(entry.hosts);
+         }
+      }
+
+      List<Host> hosts = load(serverInfo, hostIds);
+      put(key, new CacheEntry(hosts, now), invalidations);
+      return copy(hosts);
+   }
+
+   /**
+    * Reloads an entry in the background, the stale one stays in place if that fails.
+    *
+    * @param invalidations the value of _invalidations when the entry was read.
+    */
+   private void refresh(final CacheKey key, final CacheEntry entry, final ServerInfo serverInfo,
+         final List<String> hostIds, final long invalidations) {
+      try {
+         _refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+               long start = System.nanoTime();
+               try {
+                  put(key, new CacheEntry(load(serverInfo, hostIds), start), invalidations);
+               } catch (RuntimeException e) {
+                  _logger.warn("Could not refresh the cached hosts of vCenter " + serverInfo.name, e);
+               } finally {
+                  entry.refreshing.set(false);
+               }
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         // Too many refreshes pending, a later request will try again.
+         entry.refreshing.set(false);
+      }
+   }
+
+   private List<Host> load(ServerInfo serverInfo, List<String> hostIds) {
+      List<Host> hosts = (hostIds == null)
+            ? _vimObjectService.retrieveHosts(serverInfo)
+            : _vimObjectService.retrieveHosts(serverInfo, hostIds);
+      return Collections.unmodifiableList(copy(hosts));
+   }
+
+   /**
+    * Stores a result unless a more recent one is already cached, or its session
+    * was invalidated while it was loaded.
+    *
+    * @param invalidations the value of _invalidations before the load started.
+    */
+   private void put(CacheKey key, CacheEntry entry, long invalidations) {
+      synchronized (_entries) {
+         Long invalidated = _invalidatedSessions.get(key.session());
+         long lastInvalidation = (invalidated != null) ? invalidated : _forgottenInvalidations;
+         if (lastInvalidation > invalidations) {
+            return;
+         }
+         CacheEntry current = _entries.get(key);
+         if (current == null || current.loadedNanos - entry.loadedNanos <= 0) {
+            _entries.put(key, entry);
+         }
+      }
+   }
+
+   /**
+    * The hosts are mutable, so every caller gets its own copies.
+    */
+   private static List<Host> copy(List<Host> hosts) {
+      List<Host> copies = new ArrayList<>(hosts.size());
+      for (Host host : hosts) {
+         copies.add(new Host(host.id, host.name, host.state, host.vCenterName,
+               host.memorySize, host.numCpus));
+      }
+      return copies;
+   }
+
+   /**
+    * A vcenter session and the requested hosts.
+    */
+   private static final class CacheKey {
+      final String serviceGuid;
+      final String sessionCookie;
+      // Null for all hosts.
+      final List<String> hostIds;
+
+      CacheKey(ServerInfo serverInfo, List<String> hostIds) {
+         this.serviceGuid = serverInfo.serviceGuid;
+         this.sessionCookie = serverInfo.sessionCookie;
+         this.hostIds = (hostIds == null) ? null : new ArrayList<>(hostIds);
+      }
+
+      /**
+       * @return the identity of the vcenter session of a ServerInfo.
+       */
+      static String session(ServerInfo serverInfo) {
+         return serverInfo.serviceGuid + " " + serverInfo.sessionCookie;
+      }
+
+      String session() {
+         return serviceGuid + " " + sessionCookie;
+      }
+
+      boolean isSession(ServerInfo serverInfo) {
+         return equal(serviceGuid, serverInfo.serviceGuid)
+               && equal(sessionCookie, serverInfo.sessionCookie);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof CacheKey)) {
+            return false;
+         }
+         CacheKey other = (CacheKey) o;
+         return equal(serviceGuid, other.serviceGuid)
+               && equal(sessionCookie, other.sessionCookie)
+               && equal(hostIds, other.hostIds);
+      }
+
+      @Override
+      public int hashCode() {
+         int result = (serviceGuid == null) ? 0 : serviceGuid.hashCode();
+         result = 31 * result + ((sessionCookie == null) ? 0 : sessionCookie.hashCode());
+         return 31 * result + ((hostIds == null) ? 0 : hostIds.hashCode());
+      }
+
+      private static boolean equal(Object a, Object b) {
+         return (a == null) ? b == null : a.equals(b);
+      }
+   }
+
+   private static final class CacheEntry {
+      final List<Host> hosts;
+      final long loadedNanos;
+      // Set while a background refresh of this entry is pending.
+      final AtomicBoolean refreshing = new AtomicBoolean();
+
+      CacheEntry(List<Host> hosts, long loadedNanos) {
+         this.hosts = hosts;
+         this.loadedNanos = loadedNanos;
+      }
+   }
+}
@@ -0,0 +1,333 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.xml.ws.WebServiceException;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vise.usersession.ServerInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The ContainerViews used to retrieve the vSphere objects of some types, one
+ * per vcenter session and set of object types.
+ *
+ * A view is created by the first retrieval which needs it and reused by the
+ * following ones, instead of creating a view on every retrieval and leaving it
+ * on the vcenter until the session expires. Views are leased for the time of a
+ * retrieval. A view is evicted when the pool is full, when it is not used for
+ * idleMillis, when it fails, or when its session ends, and it is destroyed on
+ * the vcenter once its last lease is released, through a VimPortType leased
+ * for the session of the view. The views are destroyed on a background thread,
+ * so that releasing a view does not wait for the vcenter.
+ */
+class ContainerViewPool {
+   private static final Log _logger = LogFactory.getLog(ContainerViewPool.class);
+
+   private final VimPortPool _portPool;
+   private volatile int _maxViews;
+   private volatile long _idleNanos;
+
+   // In access order, the least recently used view first.
+   private final LinkedHashMap<ViewKey, PooledView> _views = new LinkedHashMap<>(16, 0.75f, true);
+   // Evicted views which are no longer leased, waiting to be destroyed.
+   private final List<PooledView> _evicted = new ArrayList<>();
+   // Destroys the evicted views, its thread stops when there is nothing to destroy.
+   private final ThreadPoolExecutor _destroyer = new ThreadPoolExecutor(1, 1,
+         60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+               Thread thread = new Thread(runnable, "container-view-destroyer");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+
+   /**
+    * @param portPool   the pool of the ports used to destroy the views.
+    * @param maxViews   the maximum number of views kept, for all sessions.
+    * @param idleMillis how long an unused view is kept.
+    */
+   ContainerViewPool(VimPortPool portPool, int maxViews, long idleMillis) {
+      _portPool = portPool;
+      _maxViews = maxViews;
+      _idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+      _destroyer.allowCoreThreadTimeOut(true);
+   }
+
+   void setMaxViews(int maxViews) {
+      _maxViews = maxViews;
+   }
+
+   void setIdleMillis(long idleMillis) {
+      _idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+   }
+
+   /**
+    * Leases the view of all the vSphere objects of a type, creating it if needed.
+    *
+    * @param vimPort a port bound to the session, used to create the view.
+    * @return the view, to be given back with {@link #release}
+    */
+   PooledView acquire(VimPortType vimPort, ServerInfo serverInfo,
+         ServiceContent serviceContent, String type)
+         throws RuntimeFaultFaultMsg {
+      return acquire(vimPort, serverInfo, serviceContent, Collections.singleton(type));
+   }
+
+   /**
+    * Leases the view of all the vSphere objects of some types, creating it if
+    * needed. The same view is used whatever the order of the types.
+    *
+    * @param vimPort a port bound to the session, used to create the view.
+    * @return the view, to be given back with {@link #release}
+    */
+   PooledView acquire(VimPortType vimPort, ServerInfo serverInfo,
+         ServiceContent serviceContent, Collection<String> types)
+         throws RuntimeFaultFaultMsg {
+      List<String> sortedTypes = new ArrayList<>(new TreeSet<>(types));
+      ViewKey key = new ViewKey(serverInfo.serviceGuid, serverInfo.sessionCookie,
+            sortedTypes.toString());
+      synchronized (this) {
+         PooledView view = _views.get(key);
+         if (view != null) {
+            view.leases++;
+            return view;
+         }
+      }
+
+      ManagedObjectReference viewRef = vimPort.createContainerView(
+            serviceContent.getViewManager(), serviceContent.getRootFolder(),
+            sortedTypes, true);
+      PooledView newView = new PooledView(key, serverInfo, viewRef);
+      synchronized (this) {
+         PooledView view = _views.get(key);
+         if (view == null) {
+            view = newView;
+            _views.put(key, view);
+            while (_views.size() > _maxViews) {
+               Iterator<PooledView> eldest = _views.values().iterator();
+               evict(eldest.next());
+               eldest.remove();
+            }
+         } else {
+            // Another retrieval created the same view meanwhile, keeps only one.
+            _evicted.add(newView);
+         }
+         view.leases++;
+         return view;
+      }
+   }
+
+   /**
+    * Gives back a leased view, and destroys in the background the views which
+    * were evicted or which are idle.
+    */
+   void release(PooledView view) {
+      List<PooledView> views;
+      synchronized (this) {
+         view.leases--;
+         view.lastUsedNanos = System.nanoTime();
+         if (view.evicted && view.leases == 0) {
+            _evicted.add(view);
+         }
+         evictIdleViews();
+         views = takeEvicted();
+      }
+      destroyLater(views);
+   }
+
+   /**
+    * Evicts a leased view which failed, it is destroyed once released and the
+    * next retrieval creates a new one.
+    */
+   synchronized void discard(PooledView view) {
+      if (!view.evicted) {
+         _views.remove(view.key);
+         view.evicted = true;
+      }
+   }
+
+   /**
+    * Evicts the views of a vcenter session, and destroys them in the background.
+    */
+   void invalidate(ServerInfo serverInfo) {
+      List<PooledView> views;
+      synchronized (this) {
+         Iterator<PooledView> iterator = _views.values().iterator();
+         while (iterator.hasNext()) {
+            PooledView view = iterator.next();
+            if (view.key.isSession(serverInfo.serviceGuid, serverInfo.sessionCookie)) {
+               evict(view);
+               iterator.remove();
+            }
+         }
+         views = takeEvicted();
+      }
+      destroyLater(views);
+   }
+
+   /**
+    * Evicts and destroys all views, and stops the background destruction. The
+    * views released afterwards are destroyed by the releasing thread.
+    */
+   void clear() {
+      List<PooledView> views;
+      synchronized (this) {
+         for (PooledView view : _views.values()) {
+            evict(view);
+         }
+         _views.clear();
+         views = takeEvicted();
+      }
+      _destroyer.shutdown();
+      destroy(views);
+   }
+
+   /**
+    * Evicts the views which are idle, starting from the least recently used one.
+    * Must be called holding the lock of the pool.
+    */
+   private void evictIdleViews() {
+      long now = System.nanoTime();
+      Iterator<PooledView> iterator = _views.values().iterator();
+      while (iterator.hasNext()) {
+         PooledView view = iterator.next();
+         if (now - view.lastUsedNanos < _idleNanos) {
+            break;
+         }
+         if (view.leases == 0) {
+            evict(view);
+            iterator.remove();
+         }
+      }
+   }
+
+   /**
+    * Marks a view as evicted, the caller removes it from _views.
+    * Must be called holding the lock of the pool.
+    */
+   private void evict(PooledView view) {
+      view.evicted = true;
+      if (view.leases == 0) {
+         _evicted.add(view);
+      }
+   }
+
+   private List<PooledView> takeEvicted() {
+      if (_evicted.isEmpty()) {
+         return Collections.emptyList();
+      }
+      List<PooledView> views = new ArrayList<>(_evicted);
+      _evicted.clear();
+      return views;
+   }
+
+   /**
+    * Destroys views on the background thread.
+    */
+   private void destroyLater(final List<PooledView> views) {
+      if (views.isEmpty()) {
+         return;
+      }
+      try {
+         _destroyer.execute(new Runnable() {
+            @Override
+            public void run() {
+               destroy(views);
+            }
+         });
+      } catch (RejectedExecutionException e) {
+         // The pool was cleared.
+         destroy(views);
+      }
+   }
+
+   /**
+    * Destroys views on their vcenter, a view whose session already ended is gone anyway.
+    */
+   private void destroy(List<PooledView> views) {
+      for (PooledView view : views) {
+         try (VimPortPool.Lease lease = _portPool.acquire(view.serverInfo)) {
+            lease.port().destroyView(view.ref);
+         } catch (RuntimeFaultFaultMsg | WebServiceException e) {
+            _logger.debug("Could not destroy the ContainerView " + view.ref.getValue(), e);
+         }
+      }
+   }
+
+   /**
+    * A view of the pool.
+    */
+   static final class PooledView {
+      final ViewKey key;
+      final ServerInfo serverInfo;
+      final ManagedObjectReference ref;
+      // The fields below are guarded by the lock of the pool.
+      int leases;
+      long lastUsedNanos = System.nanoTime();
+      boolean evicted;
+
+      PooledView(ViewKey key, ServerInfo serverInfo, ManagedObjectReference ref) {
+         this.key = key;
+         this.serverInfo = serverInfo;
+         this.ref = ref;
+      }
+   }
+
+   /**
+    * Identifies the view of a set of object types in a vcenter session.
+    */
+   private static final class ViewKey {
+      final String serviceGuid;
+      final String sessionCookie;
+      // The sorted types of the view.
+      final String type;
+
+      ViewKey(String serviceGuid, String sessionCookie, String type) {
+         this.serviceGuid = serviceGuid;
+         this.sessionCookie = sessionCookie;
+         this.type = type;
+      }
+
+      boolean isSession(String serviceGuid, String sessionCookie) {
+         return equal(this.serviceGuid, serviceGuid) && equal(this.sessionCookie, sessionCookie);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof ViewKey)) {
+            return false;
+         }
+         ViewKey other = (ViewKey) o;
+         return isSession(other.serviceGuid, other.sessionCookie) && type.equals(other.type);
+      }
+
+      @Override
+      public int hashCode() {
+         int result = (serviceGuid == null) ? 0 : serviceGuid.hashCode();
+         result = 31 * result + ((sessionCookie == null) ? 0 : sessionCookie.hashCode());
+         return 31 * result + type.hashCode();
+      }
+
+      private static boolean equal(Object a, Object b) {
+         return (a == null) ? b == null : a.equals(b);
+      }
+   }
+}
@@ -0,0 +1,284 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+import com.vmware.vise.usersession.ServerInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * In-memory copy of the hosts of one vcenter session, kept up to date by
+ * WaitForUpdatesEx.
+ *
+ * A dedicated thread creates a PropertyCollector, a ContainerView of all hosts
+ * and a PropertyFilter once, receives the full host set as the first update,
+ * and then only the changed properties, which it applies to the host table.
+ * The properties of a host are kept in the slots of the HostPropertyDecoder.
+ * Reads are memory lookups. The mirror stops and releases its vcenter objects
+ * when it is not read for idleMillis, when it fails, or when stop() is called.
+ *
+ * When the vcenter cannot send the changes since the last version, the mirror
+ * receives the full host set again into a new table, and keeps serving the
+ * current table until the new one is complete.
+ */
+class HostInventoryMirror implements Runnable {
+   private static final Log _logger = LogFactory.getLog(HostInventoryMirror.class);
+
+   // How long one WaitForUpdatesEx call waits for changes, which also bounds
+   // how long the mirror takes to notice that it is stopped or idle.
+   private static final int MAX_WAIT_SECONDS = 20;
+
+   private final ServerInfo _serverInfo;
+   private final VimPortPool _portPool;
+   private final long _idleNanos;
+   private final HostPropertyDecoder _decoder;
+
+   // The key is the value of a host ManagedObjectReference and the value holds
+   // its properties in the slots of the decoder. A value is never modified, it
+   // is replaced on every change. The table is replaced after a resync.
+   private volatile ConcurrentMap<String, Object[]> _hosts = new ConcurrentHashMap<>();
+   private final CountDownLatch _ready = new CountDownLatch(1);
+   private volatile boolean _stopped;
+   private volatile boolean _failed;
+   private volatile long _lastReadNanos = System.nanoTime();
+   private volatile long _stoppedNanos;
+   private Thread _thread;
+
+   /**
+    * @param serverInfo the vcenter session to mirror.
+    * @param portPool   the pool the port of the mirror is leased from.
+    * @param idleMillis how long the mirror keeps running without being read.
+    * @param decoder    maps the host properties to slots.
+    */
+   HostInventoryMirror(ServerInfo serverInfo, VimPortPool portPool, long idleMillis,
+         HostPropertyDecoder decoder) {
+      _serverInfo = serverInfo;
+      _portPool = portPool;
+      _idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+      _decoder = decoder;
+   }
+
+   synchronized void start() {
+      _thread = new Thread(this, "host-inventory-mirror-" + _serverInfo.name);
+      _thread.setDaemon(true);
+      _thread.start();
+   }
+
+   /**
+    * Stops the mirror, its vcenter objects are released by the mirror thread.
+    */
+   synchronized void stop() {
+      _stopped = true;
+      if (_thread != null) {
+         _thread.interrupt();
+      }
+   }
+
+   /**
+    * Waits for the initial host set.
+    *
+    * @return true if the mirror can be read, false if it is not ready yet or
+    *         has stopped.
+    */
+   boolean awaitReady(long timeoutMillis) {
+      try {
+         return _ready.await(timeoutMillis, TimeUnit.MILLISECONDS) && !_stopped;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+   boolean isStopped() {
+      return _stopped;
+   }
+
+   /**
+    * @return true if the mirror stopped because of an error, in which case it
+    *         should not be replaced right away.
+    */
+   boolean isFailed() {
+      return _failed;
+   }
+
+   /**
+    * @return how long ago the mirror stopped, in milliseconds.
+    */
+   long getStoppedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _stoppedNanos);
+   }
+
+   /**
+    * @return the property slots of all hosts, not to be modified.
+    */
+   List<Object[]> getHosts() {
+      _lastReadNanos = System.nanoTime();
+      return new ArrayList<>(_hosts.values());
+   }
+
+   /**
+    * @param hostIds values of the host ManagedObjectReferences.
+    * @return the property slots of the hosts which exist, not to be modified.
+    */
+   List<Object[]> getHosts(List<String> hostIds) {
+      _lastReadNanos = System.nanoTime();
+      ConcurrentMap<String, Object[]> table = _hosts;
+      List<Object[]> hosts = new ArrayList<>(hostIds.size());
+      for (String hostId : hostIds) {
+         Object[] host = table.get(hostId);
+         if (host != null) {
+            hosts.add(host);
+         }
+      }
+      return hosts;
+   }
+
+   @Override
+   public void run() {
+      ManagedObjectReference collector = null;
+      ManagedObjectReference view = null;
+      VimPortPool.Lease lease = null;
+      VimPortType vimPort = null;
+      try {
+         // The port is leased for the lifetime of the mirror.
+         lease = _portPool.acquire(_serverInfo);
+         vimPort = lease.port();
+         ServiceContent serviceContent = VimObjectServiceImpl.getServiceContent(vimPort);
+         // A private collector, so that the filter does not affect other clients.
+         collector = vimPort.createPropertyCollector(serviceContent.getPropertyCollector());
+         view = vimPort.createContainerView(serviceContent.getViewManager(),
+               serviceContent.getRootFolder(), Arrays.asList(VimObjectServiceImpl.HOST), true);
+         vimPort.createFilter(collector, VimObjectServiceImpl.createPropertyFilterSpec(view,
+               VimObjectServiceImpl.HOST, VimObjectServiceImpl.HOST_PROPERTIES), true);
+
+         WaitOptions waitOptions = new WaitOptions();
+         waitOptions.setMaxWaitSeconds(MAX_WAIT_SECONDS);
+         String version = "";
+         // The table the updates are applied to, a new one during a resync.
+         ConcurrentMap<String, Object[]> table = _hosts;
+         while (!_stopped && System.nanoTime() - _lastReadNanos < _idleNanos) {
+            UpdateSet updateSet;
+            try {
+               updateSet = vimPort.waitForUpdatesEx(collector, version, waitOptions);
+            } catch (InvalidCollectorVersionFaultMsg e) {
+               // The changes since our version are lost, start over from a full
+               // update while the current table is still served.
+               _logger.info("Resynchronizing the hosts of vCenter " + _serverInfo.name);
+               version = "";
+               table = new ConcurrentHashMap<>();
+               continue;
+            }
+            if (updateSet == null) {
+               // Nothing changed within MAX_WAIT_SECONDS, or there are no hosts
+               // at all if no update was received yet.
+               if (version.isEmpty()) {
+                  _hosts = table;
+               }
+               _ready.countDown();
+               continue;
+            }
+            apply(updateSet, table);
+            version = updateSet.getVersion();
+            if (!Boolean.TRUE.equals(updateSet.isTruncated())) {
+               // The table is complete, it replaces the current one after a resync.
+               _hosts = table;
+               _ready.countDown();
+            }
+         }
+      } catch (Exception e) {
+         if (!_stopped) {
+            _failed = true;
+            _logger.warn("The host mirror of vCenter " + _serverInfo.name + " failed", e);
+         }
+      } finally {
+         _stoppedNanos = System.nanoTime();
+         _stopped = true;
+         _ready.countDown();
+         _hosts.clear();
+         if (lease != null) {
+            release(vimPort, collector, view);
+            lease.close();
+         }
+      }
+   }
+
+   /**
+    * Applies the changes of one update set to a host table.
+    */
+   private void apply(UpdateSet updateSet, ConcurrentMap<String, Object[]> hosts) {
+      for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+         for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+            String hostId = objectUpdate.getObj().getValue();
+            switch (objectUpdate.getKind()) {
+               case LEAVE:
+                  hosts.remove(hostId);
+                  break;
+               case ENTER:
+                  hosts.put(hostId, applyChanges(null, objectUpdate.getChangeSet()));
+                  break;
+               default:
+                  hosts.put(hostId, applyChanges(hosts.get(hostId),
+                        objectUpdate.getChangeSet()));
+                  break;
+            }
+         }
+      }
+   }
+
+   /**
+    * @return a copy of the property slots of a host, or of empty slots if host
+    *         is null, with the changes applied.
+    */
+   private Object[] applyChanges(Object[] host, List<PropertyChange> changes) {
+      Object[] newHost = (host == null)
+            ? new Object[HostPropertyDecoder.SLOT_COUNT] : host.clone();
+      for (PropertyChange change : changes) {
+         int slot = _decoder.slotOf(change.getName());
+         if (slot < 0) {
+            continue;
+         }
+         if (change.getOp() == PropertyChangeOp.REMOVE
+               || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE) {
+            newHost[slot] = null;
+         } else {
+            newHost[slot] = change.getVal();
+         }
+      }
+      return newHost;
+   }
+
+   /**
+    * Destroys the vcenter objects of the mirror, the filter goes with its collector.
+    * This fails harmlessly when the session has already ended.
+    */
+   private void release(VimPortType vimPort, ManagedObjectReference collector,
+         ManagedObjectReference view) {
+      try {
+         if (view != null) {
+            vimPort.destroyView(view);
+         }
+         if (collector != null) {
+            vimPort.destroyPropertyCollector(collector);
+         }
+      } catch (Exception e) {
+         _logger.debug("Could not release the host mirror of vCenter " + _serverInfo.name, e);
+      }
+   }
+}
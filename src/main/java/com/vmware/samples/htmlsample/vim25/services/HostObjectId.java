@@ -0,0 +1,50 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+/**
+ * The object id of a HostSystem as used by the client:
+ * "urn:vmomi:HostSystem:&lt;managed object id&gt;:&lt;vCenter serviceGuid&gt;".
+ */
+public class HostObjectId {
+   private static final String HOST = "HostSystem";
+   private static final String OBJECT_ID_PREFIX = "urn:vmomi:" + HOST + ":";
+
+   // Value of the host ManagedObjectReference, e.g. "host-12".
+   public final String value;
+   // Guid of the vCenter which manages the host.
+   public final String serviceGuid;
+
+   public HostObjectId(String value, String serviceGuid) {
+      this.value = value;
+      this.serviceGuid = serviceGuid;
+   }
+
+   /**
+    * @param objectId   a host object id.
+    * @return  the parsed object id.
+    * @throws IllegalArgumentException if the object id is not a host object id.
+    */
+   public static HostObjectId parse(String objectId) {
+      if (objectId != null && objectId.startsWith(OBJECT_ID_PREFIX)) {
+         String rest = objectId.substring(OBJECT_ID_PREFIX.length());
+         int separator = rest.indexOf(':');
+         if (separator > 0 && separator < rest.length() - 1) {
+            return new HostObjectId(rest.substring(0, separator), rest.substring(separator + 1));
+         }
+      }
+      throw new IllegalArgumentException("Invalid host object id: " + objectId);
+   }
+
+   /**
+    * @return the object id of a host, built without parsing a format since it
+    *         is done for every retrieved host.
+    */
+   public static String toString(String value, String serviceGuid) {
+      return OBJECT_ID_PREFIX + value + ':' + serviceGuid;
+   }
+
+   @Override
+   public String toString() {
+      return toString(value, serviceGuid);
+   }
+}
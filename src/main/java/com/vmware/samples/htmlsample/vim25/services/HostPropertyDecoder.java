@@ -0,0 +1,129 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.samples.htmlsample.model.Host;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.HostSystemConnectionState;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vise.usersession.ServerInfo;
+
+/**
+ * Turns the retrieved properties of a HostSystem into a Host.
+ *
+ * The decoder is built once per retrieved property list, which resolves the
+ * property paths to slots. The values of an object are then read into an array
+ * of slots and written straight into the Host, without a map of the properties
+ * per object. The HostInventoryMirror keeps the same slot arrays for its hosts.
+ *
+ * The properties of an object are expected in the order of the property list:
+ * each name is first compared with the path following the previous one, and
+ * only looked up in a map if it does not match, e.g. when a property is unset
+ * and missing from the object.
+ */
+final class HostPropertyDecoder {
+   static final int NAME = 0;
+   static final int HOST_REF = 1;
+   static final int CONNECTION_STATE = 2;
+   static final int NUM_CPU_CORES = 3;
+   static final int MEMORY_SIZE = 4;
+   static final int SLOT_COUNT = 5;
+
+   // The retrieved property paths, and the slot of each of them or -1.
+   private final String[] _paths;
+   private final int[] _pathSlots;
+   // The position of each path in _paths.
+   private final Map<String, Integer> _positions = new HashMap<>();
+
+   /**
+    * @param properties              the paths of the retrieved properties.
+    * @param nameProperty            path of the host name.
+    * @param hostRefProperty         path of the host ManagedObjectReference.
+    * @param connectionStateProperty path of the HostSystemConnectionState.
+    * @param numCpuCoresProperty     path of the number of cpu cores.
+    * @param memorySizeProperty      path of the memory size.
+    */
+   HostPropertyDecoder(String[] properties, String nameProperty, String hostRefProperty,
+         String connectionStateProperty, String numCpuCoresProperty, String memorySizeProperty) {
+      Map<String, Integer> hostSlots = new HashMap<>();
+      hostSlots.put(nameProperty, NAME);
+      hostSlots.put(hostRefProperty, HOST_REF);
+      hostSlots.put(connectionStateProperty, CONNECTION_STATE);
+      hostSlots.put(numCpuCoresProperty, NUM_CPU_CORES);
+      hostSlots.put(memorySizeProperty, MEMORY_SIZE);
+
+      _paths = properties.clone();
+      _pathSlots = new int[_paths.length];
+      for (int i = 0; i < _paths.length; i++) {
+         Integer slot = hostSlots.get(_paths[i]);
+         _pathSlots[i] = (slot == null) ? -1 : slot;
+         _positions.put(_paths[i], i);
+      }
+   }
+
+   /**
+    * @return the slot of a property path, or -1 if the Host does not use it.
+    */
+   int slotOf(String property) {
+      Integer position = _positions.get(property);
+      return (position == null) ? -1 : _pathSlots[position];
+   }
+
+   /**
+    * Reads the properties of a retrieved object into a new slot array.
+    */
+   Object[] read(List<DynamicProperty> properties) {
+      Object[] values = new Object[SLOT_COUNT];
+      if (properties != null) {
+         int position = 0;
+         for (DynamicProperty property : properties) {
+            String name = property.getName();
+            if (position >= _paths.length || !_paths[position].equals(name)) {
+               Integer found = _positions.get(name);
+               if (found == null) {
+                  continue;
+               }
+               position = found;
+            }
+            int slot = _pathSlots[position++];
+            if (slot >= 0) {
+               values[slot] = property.getVal();
+            }
+         }
+      }
+      return values;
+   }
+
+   /**
+    * @return the Host of a retrieved object, or null if it is a missing object,
+    *         which has no properties.
+    */
+   Host decode(ObjectContent object, ServerInfo serverInfo) {
+      return decode(read(object.getPropSet()), serverInfo);
+   }
+
+   /**
+    * @return the Host of a slot array, or null if it has no host reference.
+    */
+   Host decode(Object[] values, ServerInfo serverInfo) {
+      ManagedObjectReference hostRef = (ManagedObjectReference) values[HOST_REF];
+      if (hostRef == null) {
+         return null;
+      }
+      HostSystemConnectionState state = (HostSystemConnectionState) values[CONNECTION_STATE];
+      return new Host(HostObjectId.toString(hostRef.getValue(), serverInfo.serviceGuid),
+            (String) values[NAME],
+            (state == null) ? "" : state.value(),
+            serverInfo.name,
+            toString(values[MEMORY_SIZE]),
+            toString(values[NUM_CPU_CORES]));
+   }
+
+   private static String toString(Object value) {
+      return (value == null) ? "" : value.toString();
+   }
+}
@@ -0,0 +1,20 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the vSphere objects of a property retrieval one page at a time,
+ * as the pages are returned by the vcenter.
+ */
+public interface PropertyPageHandler {
+   /**
+    * Handles one page of retrieved objects.
+    *
+    * @param objects the properties of each object of the page, keyed by property path
+    * @return true to retrieve the next page, false to stop the retrieval, in which
+    *         case the remaining pages are cancelled on the vcenter
+    */
+   boolean handlePage(List<Map<String, Object>> objects);
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vise.usersession.ServerInfo;
+
+/**
+ * The ServiceContent of each vcenter session.
+ *
+ * The ServiceContent does not change during a session, so it is retrieved once
+ * per session instead of once per call. It is dropped when a call of the
+ * session fails, in case the session is no longer valid, and when the session
+ * ends. At most maxEntries sessions are kept, the least recently used first
+ * out.
+ */
+class ServiceContentCache {
+   private final Map<String, ServiceContent> _entries;
+   private final AtomicLong _hits = new AtomicLong();
+   private final AtomicLong _misses = new AtomicLong();
+
+   /**
+    * @param maxEntries the maximum number of sessions kept.
+    */
+   ServiceContentCache(final int maxEntries) {
+      _entries = new LinkedHashMap<String, ServiceContent>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, ServiceContent> eldest) {
+            return size() > maxEntries;
+         }
+      };
+   }
+
+   /**
+    * Returns the ServiceContent of a session, retrieving it if needed.
+    *
+    * @param vimPort a port bound to the session.
+    */
+   ServiceContent get(ServerInfo serverInfo, VimPortType vimPort) throws RuntimeFaultFaultMsg {
+      String key = key(serverInfo);
+      synchronized (_entries) {
+         ServiceContent serviceContent = _entries.get(key);
+         if (serviceContent != null) {
+            _hits.incrementAndGet();
+            return serviceContent;
+         }
+      }
+      _misses.incrementAndGet();
+      ServiceContent serviceContent = VimObjectServiceImpl.getServiceContent(vimPort);
+      if (serviceContent != null) {
+         synchronized (_entries) {
+            _entries.put(key, serviceContent);
+         }
+      }
+      return serviceContent;
+   }
+
+   /**
+    * Drops the ServiceContent of a session.
+    */
+   void invalidate(ServerInfo serverInfo) {
+      synchronized (_entries) {
+         _entries.remove(key(serverInfo));
+      }
+   }
+
+   void clear() {
+      synchronized (_entries) {
+         _entries.clear();
+      }
+   }
+
+   long getHits() {
+      return _hits.get();
+   }
+
+   long getMisses() {
+      return _misses.get();
+   }
+
+   private static String key(ServerInfo serverInfo) {
+      return serverInfo.sessionCookie + "@" + serverInfo.serviceUrl;
+   }
+}
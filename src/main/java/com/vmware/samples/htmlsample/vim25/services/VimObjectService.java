@@ -14,5 +14,48 @@ public interface VimObjectService {
    List<Map<String, Object>> retrieveObjectProperties(ServerInfo serverInfo,
          String vSphereObject, String vSphereObjectProperties[]);
 
+   /**
+    * Retrieves the properties of all vSphere objects of a type, passing them to
+    * the handler one page at a time instead of returning them all at once.
+    *
+    * @param serverInfo specifies the vcenter information
+    * @param vSphereObject the type of the vSphere objects
+    * @param vSphereObjectProperties the paths of the properties to retrieve
+    * @param handler receives the pages, and can stop the retrieval
+    */
+   void retrieveObjectProperties(ServerInfo serverInfo, String vSphereObject,
+         String vSphereObjectProperties[], PropertyPageHandler handler);
+
+   /**
+    * Retrieves the properties of all vSphere objects of several types in one
+    * round trip to the vcenter.
+    *
+    * @param serverInfo specifies the vcenter information
+    * @param vSphereObjectProperties the paths of the properties to retrieve, by
+    *                                the type of the vSphere objects
+    * @return the vSphere objects grouped by the requested types, an object is
+    *         listed under every requested type it is an instance of
+    */
+   Map<String, List<Map<String, Object>>> retrieveObjectProperties(ServerInfo serverInfo,
+         Map<String, String[]> vSphereObjectProperties);
+
    List<Host> retrieveHosts(ServerInfo serverInfoObject);
+
+   /**
+    * Retrieves the given hosts of a vcenter by their managed object references,
+    * without going through the whole inventory.
+    *
+    * @param serverInfoObject specifies information about the vcenter
+    * @param hostIds values of the HostSystem managed object references
+    * @return the Host objects which were found
+    * @throws VimObjectServiceException if the vcenter could not be queried
+    */
+   List<Host> retrieveHosts(ServerInfo serverInfoObject, List<String> hostIds);
+
+   /**
+    * Drops anything kept for a vcenter session, called when the session ends.
+    *
+    * @param serverInfo specifies the vcenter session
+    */
+   void invalidateSession(ServerInfo serverInfo);
 }
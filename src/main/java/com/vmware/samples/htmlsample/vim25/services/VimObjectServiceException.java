@@ -0,0 +1,13 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+/**
+ * Thrown when a vcenter could not be queried.
+ */
+public class VimObjectServiceException extends RuntimeException {
+   private static final long serialVersionUID = 1L;
+
+   public VimObjectServiceException(String message, Throwable cause) {
+      super(message, cause);
+   }
+}
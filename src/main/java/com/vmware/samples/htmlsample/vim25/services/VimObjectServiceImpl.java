@@ -1,21 +1,20 @@
 /* Copyright (c) 2018 VMware, Inc. All rights reserved. */
 package com.vmware.samples.htmlsample.vim25.services;
 
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import javax.net.ssl.SSLSocketFactory;
-import javax.xml.ws.BindingProvider;
-import javax.xml.ws.handler.MessageContext;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.xml.ws.WebServiceException;
 
 import com.vmware.samples.htmlsample.model.Host;
-import com.vmware.samples.htmlsample.vim25.ssl.TrustedService;
 import com.vmware.vim25.DynamicProperty;
-import com.vmware.vim25.HostSystemConnectionState;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ObjectContent;
@@ -28,7 +27,6 @@ import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.TraversalSpec;
 import com.vmware.vim25.VimPortType;
-import com.vmware.vim25.VimService;
 import com.vmware.vise.usersession.ServerInfo;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,46 +34,137 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Vim25 service used to retrieve data from a vcenter
  * uses the TrustedService in order to create trusted connection
+ *
+ * When host mirroring is enabled, the hosts of each vcenter session are read
+ * from a {@link HostInventoryMirror} kept up to date with WaitForUpdatesEx,
+ * instead of being retrieved on every call. The hosts are retrieved directly
+ * while the mirror loads, or if it failed.
  */
 public class VimObjectServiceImpl implements VimObjectService {
    private static final Log _logger = LogFactory.getLog(VimObjectServiceImpl.class);
    private static final String SERVICE_INSTANCE = "ServiceInstance";
-   private static final String SSL_SOCKET_FACTORY =
-         "com.sun.xml.internal.ws.transport.https.client.SSLSocketFactory";
    private static final String NAME = "name";
-   private static final String HOST = "HostSystem";
-   private static final String OBJECT_ID_FORMAT = "urn:vmomi:%s:%s:%s";
+   static final String HOST = "HostSystem";
    private static final String HOST_SUMMARY = "summary.host";
    private static final String HOST_CONNECTION_STATE = "runtime.connectionState";
    private static final String NUM_CPU_CORES = "hardware.cpuInfo.numCpuCores";
    private static final String MEMORY_SIZE = "systemResources.config.memoryAllocation.limit";
-   private static final String[] HOST_PROPERTIES = {NAME, HOST_SUMMARY, NUM_CPU_CORES,
+   static final String[] HOST_PROPERTIES = {NAME, HOST_SUMMARY, NUM_CPU_CORES,
          HOST_CONNECTION_STATE, MEMORY_SIZE};
+   // Writes the HOST_PROPERTIES of the retrieved objects into Hosts.
+   static final HostPropertyDecoder HOST_DECODER = new HostPropertyDecoder(HOST_PROPERTIES,
+         NAME, HOST_SUMMARY, HOST_CONNECTION_STATE, NUM_CPU_CORES, MEMORY_SIZE);
+   // How long a call waits for the initial hosts of a new mirror.
+   private static final long MIRROR_READY_TIMEOUT_MILLIS = 5000;
+   // A mirror which is not read for this long is stopped.
+   private static final long MIRROR_IDLE_MILLIS = 10 * 60 * 1000L;
+   // A failed mirror is only recreated after this delay.
+   private static final long MIRROR_RETRY_MILLIS = 60 * 1000L;
+   // Number of objects the vcenter returns per page of a property retrieval.
+   private static final int DEFAULT_MAX_OBJECTS = 1000;
+   // Number of ContainerViews kept for all sessions, and how long an unused one is kept.
+   private static final int DEFAULT_MAX_CONTAINER_VIEWS = 500;
+   private static final long DEFAULT_CONTAINER_VIEW_IDLE_MILLIS = 10 * 60 * 1000L;
+   // Number of idle VimPortTypes kept per session, and of sessions they are kept for.
+   private static final int DEFAULT_MAX_IDLE_PORTS_PER_SESSION = 4;
+   private static final int DEFAULT_MAX_PORT_SESSIONS = 200;
+   // Number of vcenter sessions the ServiceContent is kept for.
+   private static final int MAX_SERVICE_CONTENTS = 1000;
+
+   // Host mirrors, the key identifies the vcenter session, see mirrorKey().
+   private final ConcurrentMap<String, HostInventoryMirror> _mirrors = new ConcurrentHashMap<>();
+   private boolean _mirrorHosts;
+   private int _maxObjects = DEFAULT_MAX_OBJECTS;
+   // Each call leases a VimPortType bound to its vcenter session, so that
+   // several vcenters and sessions can be queried concurrently.
+   private final VimPortPool _portPool = new VimPortPool(
+         DEFAULT_MAX_IDLE_PORTS_PER_SESSION, DEFAULT_MAX_PORT_SESSIONS);
+   private final ContainerViewPool _viewPool = new ContainerViewPool(_portPool,
+         DEFAULT_MAX_CONTAINER_VIEWS, DEFAULT_CONTAINER_VIEW_IDLE_MILLIS);
+   private final ServiceContentCache _serviceContents =
+         new ServiceContentCache(MAX_SERVICE_CONTENTS);
 
-   private static VimPortType _vimPort = initializeVimPort();
+   /**
+      Used by the VimObjectServiceImpl bean, in order to destroy the VimPortTypes on
+      bundle undeploy
+    */
+   private void destroy() {
+      for (HostInventoryMirror mirror : _mirrors.values()) {
+         mirror.stop();
+      }
+      _mirrors.clear();
+      _viewPool.clear();
+      _portPool.clear();
+      _serviceContents.clear();
+   }
 
-   private static VimPortType initializeVimPort() {
-      VimService vimService = new VimService();
-      VimPortType vimPort = vimService.getVimPort();
+   /**
+    * @param mirrorHosts true to read the hosts from a live mirror of each vcenter
+    *                    session instead of retrieving them on every call.
+    */
+   public void setMirrorHosts(boolean mirrorHosts) {
+      _mirrorHosts = mirrorHosts;
+   }
 
-      Map<String, Object> reqContext =
-            ((BindingProvider) vimPort).getRequestContext();
-      try {
-         SSLSocketFactory sslSocketFactory = TrustedService.getSSLSocketFactory();
-         reqContext.put(SSL_SOCKET_FACTORY, sslSocketFactory);
-      } catch (NoSuchAlgorithmException | KeyManagementException e) {
-         _logger.error("Could not setup SSLSocketFactory in the context.", e);
-      }
+   /**
+    * @param maxObjects number of objects retrieved per page, 0 or less lets the
+    *                   vcenter choose.
+    */
+   public void setMaxObjects(int maxObjects) {
+      _maxObjects = maxObjects;
+   }
 
-      return vimPort;
+   /**
+    * @param maxContainerViews number of ContainerViews kept for reuse, for all
+    *                          vcenter sessions.
+    */
+   public void setMaxContainerViews(int maxContainerViews) {
+      _viewPool.setMaxViews(maxContainerViews);
    }
 
    /**
-      Used by the VimObjectServiceImpl bean, in order to destroy the VimPortType on
-      bundle undeploy
+    * @param containerViewIdleMillis how long an unused ContainerView is kept
+    *                                before it is destroyed.
     */
-   private void destroy() {
-      _vimPort = null;
+   public void setContainerViewIdleMillis(long containerViewIdleMillis) {
+      _viewPool.setIdleMillis(containerViewIdleMillis);
+   }
+
+   /**
+    * @param maxIdlePortsPerSession number of idle VimPortTypes kept for each
+    *                               vcenter session.
+    */
+   public void setMaxIdlePortsPerSession(int maxIdlePortsPerSession) {
+      _portPool.setMaxIdlePerSession(maxIdlePortsPerSession);
+   }
+
+   /**
+    * @param maxPortSessions number of vcenter sessions idle VimPortTypes are kept for.
+    */
+   public void setMaxPortSessions(int maxPortSessions) {
+      _portPool.setMaxSessions(maxPortSessions);
+   }
+
+   /**
+    * @param vimPortFactory creates the VimPortTypes, by default the ports of the
+    *                       vim25 web service.
+    */
+   public void setVimPortFactory(VimPortFactory vimPortFactory) {
+      _portPool.setPortFactory(vimPortFactory);
+   }
+
+   /**
+    * @return the number of calls which used the cached ServiceContent of their session.
+    */
+   public long getServiceContentHits() {
+      return _serviceContents.getHits();
+   }
+
+   /**
+    * @return the number of calls which had to retrieve the ServiceContent.
+    */
+   public long getServiceContentMisses() {
+      return _serviceContents.getMisses();
    }
 
    /**
@@ -87,12 +176,129 @@ public class VimObjectServiceImpl implements VimObjectService {
    @Override
    public List<Host> retrieveHosts(ServerInfo serverInfoObject) {
       paramsNotNull(serverInfoObject);
-      List<Map<String, Object>> retrievedHosts =
-            retrieveObjectProperties(serverInfoObject, HOST, HOST_PROPERTIES);
+      HostInventoryMirror mirror = getMirror(serverInfoObject);
+      if (mirror != null) {
+         return decodeHosts(mirror.getHosts(), serverInfoObject);
+      }
 
-      List<Host> hosts =
-            transformHostsPropertiesToObjects(retrievedHosts, serverInfoObject);
-      return hosts;
+      HostCollector collector = new HostCollector(serverInfoObject);
+      retrieveObjectContents(serverInfoObject, HOST, HOST_PROPERTIES, collector);
+      return collector.hosts;
+   }
+
+   /**
+    * Retrives information about the given vSphere Host Objects from a vcenter
+    * specified in the ServerInfo parameter. Only the listed hosts are read,
+    * each one through its ManagedObjectReference.
+    * @param serverInfoObject specifies information about the vcenter
+    * @param hostIds values of the HostSystem managed object references
+    * @return a list of Host objects
+    * @throws VimObjectServiceException if the vcenter could not be queried
+    */
+   @Override
+   public List<Host> retrieveHosts(ServerInfo serverInfoObject, List<String> hostIds) {
+      paramsNotNull(serverInfoObject, hostIds);
+      if (hostIds.isEmpty()) {
+         return new ArrayList<>();
+      }
+      HostInventoryMirror mirror = getMirror(serverInfoObject);
+      if (mirror != null) {
+         return decodeHosts(mirror.getHosts(hostIds), serverInfoObject);
+      }
+
+      PropertyFilterSpec fSpec = new PropertyFilterSpec();
+      for (String hostId : hostIds) {
+         ManagedObjectReference hostRef = new ManagedObjectReference();
+         hostRef.setType(HOST);
+         hostRef.setValue(hostId);
+         ObjectSpec oSpec = new ObjectSpec();
+         oSpec.setObj(hostRef);
+         oSpec.setSkip(false);
+         fSpec.getObjectSet().add(oSpec);
+      }
+      PropertySpec pSpec = new PropertySpec();
+      pSpec.setType(HOST);
+      pSpec.getPathSet().addAll(Arrays.asList(HOST_PROPERTIES));
+      fSpec.getPropSet().add(pSpec);
+      // A host removed from the vcenter is then skipped instead of failing the call.
+      fSpec.setReportMissingObjectsInResults(true);
+
+      HostCollector collector = new HostCollector(serverInfoObject);
+      try (VimPortPool.Lease lease = _portPool.acquire(serverInfoObject)) {
+         VimPortType vimPort = lease.port();
+         ServiceContent serviceContent;
+         try {
+            serviceContent = _serviceContents.get(serverInfoObject, vimPort);
+         } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
+            throw new VimObjectServiceException(
+                  "Could not retrieve the ServiceContent using sessionCookie", runtimeFaultFaultMsg);
+         }
+         try {
+            retrievePages(vimPort, serviceContent.getPropertyCollector(), fSpec, collector);
+         } catch (RuntimeFaultFaultMsg e) {
+            // The session may have ended, its ServiceContent is retrieved again next time.
+            _serviceContents.invalidate(serverInfoObject);
+            throw new VimObjectServiceException(
+                  "Could not retrieveProperties for hosts " + hostIds, e);
+         } catch (InvalidPropertyFaultMsg e) {
+            throw new VimObjectServiceException(
+                  "Could not retrieveProperties for hosts " + hostIds, e);
+         } catch (WebServiceException e) {
+            _serviceContents.invalidate(serverInfoObject);
+            throw e;
+         }
+      }
+
+      return collector.hosts;
+   }
+
+   /**
+    * Stops the host mirror, destroys the ContainerViews and drops the VimPortTypes
+    * and the ServiceContent of a vcenter session.
+    */
+   @Override
+   public void invalidateSession(ServerInfo serverInfo) {
+      HostInventoryMirror mirror = _mirrors.remove(mirrorKey(serverInfo));
+      if (mirror != null) {
+         mirror.stop();
+      }
+      _viewPool.invalidate(serverInfo);
+      _portPool.invalidate(serverInfo);
+      _serviceContents.invalidate(serverInfo);
+   }
+
+   /**
+    * Returns the host mirror of a vcenter session, starting it if needed.
+    *
+    * @return the mirror, or null if mirroring is disabled or the mirror cannot
+    *         be read yet
+    */
+   private HostInventoryMirror getMirror(ServerInfo serverInfo) {
+      if (!_mirrorHosts) {
+         return null;
+      }
+      String key = mirrorKey(serverInfo);
+      HostInventoryMirror mirror = _mirrors.get(key);
+      if (mirror != null && mirror.isStopped()
+            && (!mirror.isFailed() || mirror.getStoppedMillis() >= MIRROR_RETRY_MILLIS)) {
+         // Idle, or failed long enough ago to try again.
+         _mirrors.remove(key, mirror);
+         mirror = null;
+      }
+      if (mirror == null) {
+         HostInventoryMirror newMirror = new HostInventoryMirror(serverInfo, _portPool,
+               MIRROR_IDLE_MILLIS, HOST_DECODER);
+         mirror = _mirrors.putIfAbsent(key, newMirror);
+         if (mirror == null) {
+            mirror = newMirror;
+            mirror.start();
+         }
+      }
+      return mirror.awaitReady(MIRROR_READY_TIMEOUT_MILLIS) ? mirror : null;
+   }
+
+   private static String mirrorKey(ServerInfo serverInfo) {
+      return serverInfo.serviceGuid + ":" + serverInfo.sessionCookie;
    }
 
    /**
@@ -100,8 +306,8 @@ public class VimObjectServiceImpl implements VimObjectService {
     * properties, retrieves the values of properties for the given vSphere Object
     * in the vcenter defined in the ServerInfo
     *
-    * Sets up PropertyCollector and ViewManager, Creates the PropertyFilterSpec,
-    * retrieves data using the _vimPort field and formats them for easier usage.
+    * Sets up PropertyCollector and a pooled ContainerView, Creates the PropertyFilterSpec,
+    * retrieves data using a VimPortType leased for the session and formats them for easier usage.
     * @param serverInfo specifies the vcenter information from where the properties will be retrieved
     * @param vSphereObject for which vSphere Object to retrieve the properties
     * @param vSphereObjectProperties
@@ -110,119 +316,142 @@ public class VimObjectServiceImpl implements VimObjectService {
    @Override
    public List<Map<String, Object>> retrieveObjectProperties(ServerInfo serverInfo,
          String vSphereObject, String vSphereObjectProperties[]) {
-      paramsNotNull(serverInfo, vSphereObject, vSphereObjectProperties);
-      ServiceContent serviceContent = null;
-      try {
-         serviceContent = getServiceContentWithSessionCookie(serverInfo);
-      } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
-         _logger.warn("Could not retrieve the ServiceContent using sessionCookie",
-               runtimeFaultFaultMsg);
-      }
-      if(serviceContent == null) {
-         return new ArrayList<>();
-      }
-      // Get references to the ViewManager and the PropertyCollector
-      ManagedObjectReference viewMgrRef = serviceContent.getViewManager();
-      ManagedObjectReference propColl = serviceContent.getPropertyCollector();
+      CollectingPageHandler collector = new CollectingPageHandler();
+      retrieveObjectProperties(serverInfo, vSphereObject, vSphereObjectProperties, collector);
+      return collector.objects;
+   }
 
-      // Create a container view for the vSphere Object.
-      List<String> vObjects = new ArrayList<>();
-      vObjects.add(vSphereObject);
+   /**
+    * Same as {@link #retrieveObjectProperties(ServerInfo, String, String[])}, but the
+    * vSphere Objects are passed to the handler one page of maxObjects at a time,
+    * as they are retrieved.
+    */
+   @Override
+   public void retrieveObjectProperties(ServerInfo serverInfo, String vSphereObject,
+         String vSphereObjectProperties[], PropertyPageHandler handler) {
+      paramsNotNull(serverInfo, vSphereObject, vSphereObjectProperties, handler);
+      retrieveObjectContents(serverInfo, vSphereObject, vSphereObjectProperties,
+            new PropertyMapAdapter(handler));
+   }
 
-      RetrieveResult props = null;
-      try {
-         ManagedObjectReference cViewRef = _vimPort.createContainerView(viewMgrRef,
-               serviceContent.getRootFolder(), vObjects, true );
-
-         props = retrieveProperties(cViewRef, propColl, vSphereObject, vSphereObjectProperties);
-      } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
-         _logger.error("Could not create ContainerView for " + vSphereObject , runtimeFaultFaultMsg);
-      } catch (InvalidPropertyFaultMsg invalidPropertyFaultMsg) {
-         _logger.error("Could not retrieveProperties for " + vSphereObject, invalidPropertyFaultMsg);
+   /**
+    * Retrieves the properties of the vSphere Objects of several types at once,
+    * with a single PropertyFilterSpec over one pooled ContainerView of all the
+    * types, so that the objects of a composite view cost one round trip.
+    *
+    * @param serverInfo specifies the vcenter information from where the properties will be retrieved
+    * @param vSphereObjectProperties the paths of the properties to retrieve, by vSphere Object type
+    * @return the retrieved vSphere Objects grouped by the requested types, with
+    *         an empty list for the requested types which have no objects. An
+    *         object is listed under every requested type it is an instance of,
+    *         e.g. a ClusterComputeResource under ComputeResource.
+    */
+   @Override
+   public Map<String, List<Map<String, Object>>> retrieveObjectProperties(
+         ServerInfo serverInfo, Map<String, String[]> vSphereObjectProperties) {
+      paramsNotNull(serverInfo, vSphereObjectProperties);
+      TypeGroupingHandler grouping = new TypeGroupingHandler(vSphereObjectProperties.keySet());
+      if (!vSphereObjectProperties.isEmpty()) {
+         retrieveObjectContents(serverInfo, vSphereObjectProperties, grouping);
       }
-
-      return formatRetrievedProperties(props);
+      return grouping.objects;
    }
 
    /**
-    * Formats the list of host properties to a real Host objects
+    * Retrieves the properties of all vSphere Objects of a type through a pooled
+    * ContainerView, and passes the ObjectContents of each page to the handler.
     */
-   private List<Host> transformHostsPropertiesToObjects(
-         List<Map<String, Object>> retrievedHosts, ServerInfo serverInfoObject) {
-      List<Host> hosts = new ArrayList<>();
-      for(Map<String, Object> retrievedHost : retrievedHosts) {
-         String objectId = getFormattedObjectId(retrievedHost, serverInfoObject.serviceGuid);
-         String connectionState = getHostConnectionState(retrievedHost);
-
-         Object numCpuObject = retrievedHost.get(NUM_CPU_CORES);
-         Object memSizeObject = retrievedHost.get(MEMORY_SIZE);
-         String numCpus = (numCpuObject == null) ? "" : numCpuObject.toString();
-         String memSize = (memSizeObject == null) ? "" : memSizeObject.toString();
-
-         Host host = new Host(objectId, (String)retrievedHost.get(NAME), connectionState,
-               serverInfoObject.name, memSize, numCpus);
-
-         hosts.add(host);
-      }
-      return hosts;
+   private void retrieveObjectContents(ServerInfo serverInfo, String vSphereObject,
+         String vSphereObjectProperties[], ObjectContentHandler handler) {
+      retrieveObjectContents(serverInfo,
+            Collections.singletonMap(vSphereObject, vSphereObjectProperties), handler);
    }
 
    /**
-    * Uses the host id and the serviceGuid to create the objectId for the current host
+    * Retrieves the properties of all vSphere Objects of some types through a
+    * pooled ContainerView of these types, and passes the ObjectContents of each
+    * page to the handler.
     */
-   private String getFormattedObjectId(Map<String, Object> host, String serviceGuid) {
-      String hostId = ((ManagedObjectReference)host.get(HOST_SUMMARY)).getValue();
-      String objectId = String.format(OBJECT_ID_FORMAT, HOST, hostId, serviceGuid);
-      return objectId;
+   private void retrieveObjectContents(ServerInfo serverInfo,
+         Map<String, String[]> vSphereObjectProperties, ObjectContentHandler handler) {
+      Set<String> vSphereObjects = vSphereObjectProperties.keySet();
+      ContainerViewPool.PooledView view = null;
+      try (VimPortPool.Lease lease = _portPool.acquire(serverInfo)) {
+         VimPortType vimPort = lease.port();
+         ServiceContent serviceContent = null;
+         try {
+            serviceContent = _serviceContents.get(serverInfo, vimPort);
+         } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
+            _logger.warn("Could not retrieve the ServiceContent using sessionCookie",
+                  runtimeFaultFaultMsg);
+         }
+         if(serviceContent == null) {
+            return;
+         }
+         ManagedObjectReference propColl = serviceContent.getPropertyCollector();
+
+         // Lease the container view of the vSphere Objects of this session.
+         try {
+            view = _viewPool.acquire(vimPort, serverInfo, serviceContent, vSphereObjects);
+         } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
+            _serviceContents.invalidate(serverInfo);
+            _logger.error("Could not create ContainerView for " + vSphereObjects , runtimeFaultFaultMsg);
+            return;
+         }
+
+         try {
+            retrievePages(vimPort, propColl,
+                  createPropertyFilterSpec(view.ref, vSphereObjectProperties), handler);
+         } catch (RuntimeFaultFaultMsg runtimeFaultFaultMsg) {
+            // The view or the session may no longer exist on the vcenter, the next
+            // call retrieves the ServiceContent and creates a view again.
+            _viewPool.discard(view);
+            _serviceContents.invalidate(serverInfo);
+            _logger.error("Could not retrieveProperties for " + vSphereObjects, runtimeFaultFaultMsg);
+         } catch (InvalidPropertyFaultMsg invalidPropertyFaultMsg) {
+            _logger.error("Could not retrieveProperties for " + vSphereObjects, invalidPropertyFaultMsg);
+         } catch (WebServiceException e) {
+            _viewPool.discard(view);
+            _serviceContents.invalidate(serverInfo);
+            throw e;
+         }
+      } finally {
+         // Released once the port is given back, evicted views are destroyed here.
+         if (view != null) {
+            _viewPool.release(view);
+         }
+      }
    }
 
    /**
-    * Retrieves the connection state for the given host
+    * Formats the property slots of the mirrored hosts to a real Host objects
     */
-   private String getHostConnectionState(Map<String, Object> host) {
-      HostSystemConnectionState conState =
-            (HostSystemConnectionState)host.get(HOST_CONNECTION_STATE);
-      return (conState == null) ? "" : conState.value();
+   private static List<Host> decodeHosts(List<Object[]> mirroredHosts,
+         ServerInfo serverInfoObject) {
+      List<Host> hosts = new ArrayList<>(mirroredHosts.size());
+      for (Object[] mirroredHost : mirroredHosts) {
+         Host host = HOST_DECODER.decode(mirroredHost, serverInfoObject);
+         if (host != null) {
+            hosts.add(host);
+         }
+      }
+      return hosts;
    }
 
    /**
-    * Sets up the Service Instance ManagedObjectReference and
-    * sets the thumbprint taken from the ServerInfo and
-    * retrieves the ServiceContent using the _vimPort
+    * Retrieves the ServiceContent of the vcenter session a VimPortType is bound to.
     * @return The newly retrieved ServiceContent
     * @throws RuntimeFaultFaultMsg
     */
-   private ServiceContent getServiceContentWithSessionCookie(ServerInfo sInfo)
-         throws RuntimeFaultFaultMsg {
-      TrustedService.setThumbprint(sInfo);
-      ManagedObjectReference serviceInstanceRef =
-            createSvcInstanceRef(sInfo.serviceUrl, sInfo.sessionCookie);
-
-      ServiceContent serviceContent =
-            _vimPort.retrieveServiceContent(serviceInstanceRef);
-
-      return serviceContent;
+   static ServiceContent getServiceContent(VimPortType vimPort) throws RuntimeFaultFaultMsg {
+      return vimPort.retrieveServiceContent(createSvcInstanceRef());
    }
 
    /**
-    * Adds the sessionCookie and the serviceUrl to the BindingProvider of the already
-    * created _vimPort and creates a service instance ManagedObjectReference
+    * Creates a service instance ManagedObjectReference
     * @return The Service Instance ManagedObjectReference
     */
-   private ManagedObjectReference createSvcInstanceRef(final String serviceUrl,
-         final String sessionCookie) {
-      List<String> values = new ArrayList<>();
-      values.add("vmware_soap_session=" + sessionCookie);
-      Map<String, List<String>> reqHeadrs =
-            new HashMap<>();
-      reqHeadrs.put("Cookie", values);
-
-      Map<String, Object> reqContext =
-            ((BindingProvider) _vimPort).getRequestContext();
-      reqContext.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, serviceUrl);
-      reqContext.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
-      reqContext.put(MessageContext.HTTP_REQUEST_HEADERS, reqHeadrs);
-
+   private static ManagedObjectReference createSvcInstanceRef() {
       final ManagedObjectReference svcInstanceRef = new ManagedObjectReference();
       svcInstanceRef.setType(SERVICE_INSTANCE);
       svcInstanceRef.setValue(SERVICE_INSTANCE);
@@ -231,23 +460,46 @@ public class VimObjectServiceImpl implements VimObjectService {
    }
 
    /**
-    * Retrieves properties from the given ViewManager and PropertyCollector
-    *
-    * @return Retrieved properties if it succeds, null otherwise
+    * Retrieves the properties selected by a PropertyFilterSpec one page at a time,
+    * following the continuation token of each page until the last one. The
+    * remaining pages are cancelled if the handler stops the retrieval or if it fails.
     */
-   private RetrieveResult retrieveProperties(ManagedObjectReference cViewRef,
-         ManagedObjectReference propColl, String vSphereObject,
-         String vSphereObjectProperties[]) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-      PropertyFilterSpec fSpec = createPropertyFilterSpec(cViewRef, vSphereObject,
-            vSphereObjectProperties);
-
-      List<PropertyFilterSpec> fSpecList = new ArrayList<>();
-      fSpecList.add(fSpec);
-
+   private void retrievePages(VimPortType vimPort, ManagedObjectReference propColl,
+         PropertyFilterSpec fSpec, ObjectContentHandler handler)
+         throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
       RetrieveOptions ro = new RetrieveOptions();
-      RetrieveResult props = _vimPort.retrievePropertiesEx(propColl, fSpecList, ro);
+      if (_maxObjects > 0) {
+         ro.setMaxObjects(_maxObjects);
+      }
+      RetrieveResult props = vimPort.retrievePropertiesEx(propColl, Arrays.asList(fSpec), ro);
+
+      String token = null;
+      try {
+         while (props != null) {
+            token = props.getToken();
+            if (!handler.handleObjects(props.getObjects()) || token == null) {
+               return;
+            }
+            props = vimPort.continueRetrievePropertiesEx(propColl, token);
+         }
+         token = null;
+      } finally {
+         if (token != null) {
+            cancelRetrieval(vimPort, propColl, token);
+         }
+      }
+   }
 
-      return props;
+   /**
+    * Releases the pages of a retrieval which will not be read.
+    */
+   private static void cancelRetrieval(VimPortType vimPort, ManagedObjectReference propColl,
+         String token) {
+      try {
+         vimPort.cancelRetrievePropertiesEx(propColl, token);
+      } catch (InvalidPropertyFaultMsg | RuntimeFaultFaultMsg | WebServiceException e) {
+         _logger.warn("Could not cancel the property retrieval " + token, e);
+      }
    }
 
    /**
@@ -256,8 +508,21 @@ public class VimObjectServiceImpl implements VimObjectService {
     *
     * @return the newly created PropertyFilterSpec
     */
-   private PropertyFilterSpec createPropertyFilterSpec(ManagedObjectReference cViewRef,
+   static PropertyFilterSpec createPropertyFilterSpec(ManagedObjectReference cViewRef,
          String vSphereObject, String vSphereObjectProperties[]) {
+      return createPropertyFilterSpec(cViewRef,
+            Collections.singletonMap(vSphereObject, vSphereObjectProperties));
+   }
+
+   /**
+    * Creates PropertyFilterSpec which retrievs properties from the vSphere Objects
+    * of several types, with one PropertySpec per type.
+    *
+    * @param vSphereObjectProperties the paths of the properties, by vSphere Object type
+    * @return the newly created PropertyFilterSpec
+    */
+   static PropertyFilterSpec createPropertyFilterSpec(ManagedObjectReference cViewRef,
+         Map<String, String[]> vSphereObjectProperties) {
       // Creates an object specification to define the starting point for inventory navigation
       ObjectSpec oSpec = new ObjectSpec();
       oSpec.setObj(cViewRef);
@@ -273,46 +538,171 @@ public class VimObjectServiceImpl implements VimObjectService {
       // Adds the TraversalSpec to the ObjectSpec.selectSet array.
       oSpec.getSelectSet().add(tSpec);
 
-      // Identify the properties to be retrieved.
-      PropertySpec pSpec = new PropertySpec();
-      pSpec.setType(vSphereObject);
-      pSpec.getPathSet().addAll(Arrays.asList(vSphereObjectProperties));
-
-      // Adds the object and property specifications to the property filter specification.
+      // Adds the object specification to the property filter specification.
       PropertyFilterSpec fSpec = new PropertyFilterSpec();
       fSpec.getObjectSet().add(oSpec);
-      fSpec.getPropSet().add(pSpec);
+
+      // Identify the properties to be retrieved for each type, and adds them.
+      for (Map.Entry<String, String[]> entry : vSphereObjectProperties.entrySet()) {
+         PropertySpec pSpec = new PropertySpec();
+         pSpec.setType(entry.getKey());
+         pSpec.getPathSet().addAll(Arrays.asList(entry.getValue()));
+         fSpec.getPropSet().add(pSpec);
+      }
 
       return fSpec;
    }
 
    /**
-    * Given RetrieveResult, converts the properties in a list of maps, where the maps
+    * Given the retrieved objects, converts the properties in a list of maps, where the maps
     * contain string keys(i.e. the property name) and Object values(i.e. the retrieved
     * properties)
-    * @param props containing the properties of the retrieved vSphere Object
+    * @param objects the retrieved vSphere Objects
     * @return The retrieved object in a more suitable format
     */
-   private List<Map<String, Object>> formatRetrievedProperties(RetrieveResult props) {
-      List<Map<String, Object>> objectsProperties = new ArrayList<>();
+   private static List<Map<String, Object>> formatRetrievedProperties(
+         List<ObjectContent> objects) {
+      List<Map<String, Object>> objectsProperties = new ArrayList<>(objects.size());
 
-      if (props != null) {
-         for (ObjectContent oc : props.getObjects()) {
-            List<DynamicProperty> dps = oc.getPropSet();
+      for (ObjectContent oc : objects) {
+         List<DynamicProperty> dps = oc.getPropSet();
 
-            Map<String, Object> managedObject = new HashMap<>(dps.size());
+         Map<String, Object> managedObject = new HashMap<>();
 
-            if (dps != null) {
-               for (DynamicProperty dp : dps) {
-                  managedObject.put(dp.getName(), dp.getVal());
-               }
+         if (dps != null) {
+            for (DynamicProperty dp : dps) {
+               managedObject.put(dp.getName(), dp.getVal());
             }
-            objectsProperties.add(managedObject);
          }
+         objectsProperties.add(managedObject);
       }
       return objectsProperties;
    }
 
+   /**
+    * Receives the ObjectContents of a retrieval one page at a time.
+    */
+   private interface ObjectContentHandler {
+      /**
+       * @return false to stop the retrieval.
+       */
+      boolean handleObjects(List<ObjectContent> objects);
+   }
+
+   /**
+    * Passes the pages to a PropertyPageHandler as maps of properties.
+    */
+   private static final class PropertyMapAdapter implements ObjectContentHandler {
+      private final PropertyPageHandler _handler;
+
+      PropertyMapAdapter(PropertyPageHandler handler) {
+         _handler = handler;
+      }
+
+      @Override
+      public boolean handleObjects(List<ObjectContent> objects) {
+         return _handler.handlePage(formatRetrievedProperties(objects));
+      }
+   }
+
+   /**
+    * Keeps all the pages of a retrieval.
+    */
+   private static final class CollectingPageHandler implements PropertyPageHandler {
+      final List<Map<String, Object>> objects = new ArrayList<>();
+
+      @Override
+      public boolean handlePage(List<Map<String, Object>> page) {
+         objects.addAll(page);
+         return true;
+      }
+   }
+
+   /**
+    * Keeps all the pages of a retrieval as maps of properties, grouped by the
+    * requested types the objects are instances of.
+    */
+   private static final class TypeGroupingHandler implements ObjectContentHandler {
+      // The supertype of the vSphere inventory types, the types of the objects
+      // a ContainerView can return.
+      private static final Map<String, String> SUPER_TYPES = new HashMap<>();
+      static {
+         SUPER_TYPES.put("ClusterComputeResource", "ComputeResource");
+         SUPER_TYPES.put("ComputeResource", "ManagedEntity");
+         SUPER_TYPES.put("Datacenter", "ManagedEntity");
+         SUPER_TYPES.put("Datastore", "ManagedEntity");
+         SUPER_TYPES.put("DistributedVirtualPortgroup", "Network");
+         SUPER_TYPES.put("DistributedVirtualSwitch", "ManagedEntity");
+         SUPER_TYPES.put("Folder", "ManagedEntity");
+         SUPER_TYPES.put("HostSystem", "ManagedEntity");
+         SUPER_TYPES.put("Network", "ManagedEntity");
+         SUPER_TYPES.put("OpaqueNetwork", "Network");
+         SUPER_TYPES.put("ResourcePool", "ManagedEntity");
+         SUPER_TYPES.put("StoragePod", "Folder");
+         SUPER_TYPES.put("VirtualApp", "ResourcePool");
+         SUPER_TYPES.put("VirtualMachine", "ManagedEntity");
+         SUPER_TYPES.put("VmwareDistributedVirtualSwitch", "DistributedVirtualSwitch");
+      }
+
+      final Map<String, List<Map<String, Object>>> objects = new LinkedHashMap<>();
+
+      TypeGroupingHandler(Set<String> types) {
+         for (String type : types) {
+            objects.put(type, new ArrayList<Map<String, Object>>());
+         }
+      }
+
+      @Override
+      public boolean handleObjects(List<ObjectContent> page) {
+         List<Map<String, Object>> properties = formatRetrievedProperties(page);
+         for (int i = 0; i < page.size(); i++) {
+            String objectType = page.get(i).getObj().getType();
+            boolean grouped = false;
+            for (String type = objectType; type != null; type = SUPER_TYPES.get(type)) {
+               List<Map<String, Object>> typeObjects = objects.get(type);
+               if (typeObjects != null) {
+                  typeObjects.add(properties.get(i));
+                  grouped = true;
+               }
+            }
+            if (!grouped) {
+               // A type missing from SUPER_TYPES, it can only belong to a
+               // single requested type.
+               if (objects.size() == 1) {
+                  objects.values().iterator().next().add(properties.get(i));
+               } else {
+                  _logger.debug("Ignored an object of the unexpected type " + objectType);
+               }
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Decodes the pages of a host retrieval straight into Hosts, skipping the
+    * missing hosts.
+    */
+   private static final class HostCollector implements ObjectContentHandler {
+      final List<Host> hosts = new ArrayList<>();
+      private final ServerInfo _serverInfo;
+
+      HostCollector(ServerInfo serverInfo) {
+         _serverInfo = serverInfo;
+      }
+
+      @Override
+      public boolean handleObjects(List<ObjectContent> objects) {
+         for (ObjectContent object : objects) {
+            Host host = HOST_DECODER.decode(object, _serverInfo);
+            if (host != null) {
+               hosts.add(host);
+            }
+         }
+         return true;
+      }
+   }
+
    /**
     * Tests the args array for null elements and throws an IllegalArgumentException if
     * any null elements are encountered.
@@ -0,0 +1,18 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Creates the VimPortTypes used to call the vcenters.
+ *
+ * The ports must also be javax.xml.ws.BindingProviders, the endpoint address,
+ * session cookie, SSL socket factory and timeouts of each port are set in its
+ * request context by the caller.
+ */
+public interface VimPortFactory {
+   /**
+    * @return a new port, not bound to any vcenter yet.
+    */
+   VimPortType createPort();
+}
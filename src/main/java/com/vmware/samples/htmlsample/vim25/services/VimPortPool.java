@@ -0,0 +1,257 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.handler.MessageContext;
+
+import com.vmware.samples.htmlsample.vim25.ssl.TrustedService;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vise.usersession.ServerInfo;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The VimPortTypes used to call the vcenters, pooled by endpoint and session.
+ *
+ * A port is bound to the endpoint and session cookie of its key when it is
+ * created, and its request context is never changed afterwards, so calls to
+ * different vcenters or sessions never share a request context. A port is
+ * leased by one caller at a time and returned to the pool when the lease is
+ * closed, which makes it possible to call many vcenters concurrently. All the
+ * ports of an endpoint use its SSLSocketFactory from TrustedService, so they
+ * share its keep-alive connections and TLS sessions.
+ *
+ * The pool keeps at most maxIdlePerSession idle ports per session, for at most
+ * maxSessions sessions, dropping the least recently used sessions first.
+ * Leased ports are not limited, the callers are.
+ *
+ * A port leased before its session was invalidated, or before the pool was
+ * cleared, is dropped when it is released instead of becoming idle again. The
+ * leases record the value of a counter of the invalidations, and the pool
+ * remembers when the last MAX_INVALIDATED_SESSIONS sessions were invalidated.
+ */
+class VimPortPool {
+   private static final Log _logger = LogFactory.getLog(VimPortPool.class);
+   private static final String SSL_SOCKET_FACTORY =
+         "com.sun.xml.internal.ws.transport.https.client.SSLSocketFactory";
+   private static final String CONNECT_TIMEOUT = "com.sun.xml.internal.ws.connect.timeout";
+   private static final String REQUEST_TIMEOUT = "com.sun.xml.internal.ws.request.timeout";
+   // Bounds the time a thread can be stuck on an unresponsive vcenter, in milliseconds.
+   private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+   private static final int REQUEST_TIMEOUT_MILLIS = 60000;
+   // Number of invalidated sessions remembered, see _invalidatedSessions.
+   private static final int MAX_INVALIDATED_SESSIONS = 1000;
+
+   private volatile int _maxIdlePerSession;
+   private volatile int _maxSessions;
+
+   // The idle ports of each session, in access order, the least recently used first.
+   private final LinkedHashMap<PortKey, Deque<VimPortType>> _idlePorts =
+         new LinkedHashMap<>(16, 0.75f, true);
+   private volatile VimPortFactory _portFactory = new VimServicePortFactory();
+   // Incremented by every invalidation and clear, guarded by the pool.
+   private long _invalidations;
+   // The value of _invalidations when each recently invalidated session was
+   // invalidated, oldest first, guarded by the pool.
+   private final LinkedHashMap<PortKey, Long> _invalidatedSessions =
+         new LinkedHashMap<PortKey, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PortKey, Long> eldest) {
+               if (size() > MAX_INVALIDATED_SESSIONS) {
+                  _forgottenInvalidations = eldest.getValue();
+                  return true;
+               }
+               return false;
+            }
+         };
+   // The invalidation of the last session removed from _invalidatedSessions,
+   // or of the last clear, guarded by the pool.
+   private long _forgottenInvalidations;
+
+   /**
+    * @param maxIdlePerSession the maximum number of idle ports kept per session.
+    * @param maxSessions       the maximum number of sessions with idle ports.
+    */
+   VimPortPool(int maxIdlePerSession, int maxSessions) {
+      _maxIdlePerSession = maxIdlePerSession;
+      _maxSessions = maxSessions;
+   }
+
+   void setMaxIdlePerSession(int maxIdlePerSession) {
+      _maxIdlePerSession = maxIdlePerSession;
+   }
+
+   void setMaxSessions(int maxSessions) {
+      _maxSessions = maxSessions;
+   }
+
+   /**
+    * Replaces the factory of the new ports, the idle ports are dropped.
+    */
+   synchronized void setPortFactory(VimPortFactory portFactory) {
+      _portFactory = portFactory;
+      clear();
+   }
+
+   /**
+    * Leases a port bound to a vcenter session, to be used in a try-with-resources
+    * statement.
+    */
+   Lease acquire(ServerInfo serverInfo) {
+      TrustedService.setThumbprint(serverInfo);
+      PortKey key = new PortKey(serverInfo.serviceUrl, serverInfo.sessionCookie);
+      long invalidations;
+      synchronized (this) {
+         invalidations = _invalidations;
+         Deque<VimPortType> ports = _idlePorts.get(key);
+         if (ports != null && !ports.isEmpty()) {
+            return new Lease(key, ports.pop(), invalidations);
+         }
+      }
+      return new Lease(key, createPort(key), invalidations);
+   }
+
+   /**
+    * Drops the idle ports of a vcenter session, and the ports currently leased
+    * for it once they are released.
+    */
+   synchronized void invalidate(ServerInfo serverInfo) {
+      PortKey key = new PortKey(serverInfo.serviceUrl, serverInfo.sessionCookie);
+      _idlePorts.remove(key);
+      _invalidatedSessions.remove(key);
+      _invalidatedSessions.put(key, ++_invalidations);
+   }
+
+   /**
+    * Drops all idle ports, and the ports currently leased once they are released.
+    */
+   synchronized void clear() {
+      _idlePorts.clear();
+      _invalidatedSessions.clear();
+      _forgottenInvalidations = ++_invalidations;
+   }
+
+   /**
+    * Returns a port to the idle ports of its session, unless the session was
+    * invalidated since the port was leased.
+    *
+    * @param invalidations the value of _invalidations when the port was leased.
+    */
+   private synchronized void release(PortKey key, VimPortType port, long invalidations) {
+      Long invalidated = _invalidatedSessions.get(key);
+      long lastInvalidation = (invalidated != null) ? invalidated : _forgottenInvalidations;
+      if (lastInvalidation > invalidations) {
+         return;
+      }
+      Deque<VimPortType> ports = _idlePorts.get(key);
+      if (ports == null) {
+         ports = new ArrayDeque<>();
+         _idlePorts.put(key, ports);
+         Iterator<Deque<VimPortType>> eldest = _idlePorts.values().iterator();
+         while (_idlePorts.size() > _maxSessions) {
+            eldest.next();
+            eldest.remove();
+         }
+      }
+      if (ports.size() < _maxIdlePerSession) {
+         ports.push(port);
+      }
+   }
+
+   private VimPortType createPort(PortKey key) {
+      VimPortType vimPort = _portFactory.createPort();
+
+      Map<String, Object> reqContext = ((BindingProvider) vimPort).getRequestContext();
+      try {
+         SSLSocketFactory sslSocketFactory = TrustedService.getSSLSocketFactory(key.serviceUrl);
+         reqContext.put(SSL_SOCKET_FACTORY, sslSocketFactory);
+      } catch (NoSuchAlgorithmException | KeyManagementException e) {
+         _logger.error("Could not setup SSLSocketFactory in the context.", e);
+      }
+      reqContext.put(CONNECT_TIMEOUT, CONNECT_TIMEOUT_MILLIS);
+      reqContext.put(REQUEST_TIMEOUT, REQUEST_TIMEOUT_MILLIS);
+
+      List<String> values = new ArrayList<>();
+      values.add("vmware_soap_session=" + key.sessionCookie);
+      Map<String, List<String>> reqHeadrs = new HashMap<>();
+      reqHeadrs.put("Cookie", values);
+      reqContext.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, key.serviceUrl);
+      reqContext.put(BindingProvider.SESSION_MAINTAIN_PROPERTY, true);
+      reqContext.put(MessageContext.HTTP_REQUEST_HEADERS, reqHeadrs);
+
+      return vimPort;
+   }
+
+   /**
+    * A port leased from the pool.
+    */
+   final class Lease implements AutoCloseable {
+      private final PortKey _key;
+      private final VimPortType _port;
+      // The value of _invalidations when the port was leased.
+      private final long _invalidations;
+
+      private Lease(PortKey key, VimPortType port, long invalidations) {
+         _key = key;
+         _port = port;
+         _invalidations = invalidations;
+      }
+
+      VimPortType port() {
+         return _port;
+      }
+
+      /**
+       * Returns the port to the pool.
+       */
+      @Override
+      public void close() {
+         release(_key, _port, _invalidations);
+      }
+   }
+
+   /**
+    * Identifies a vcenter session.
+    */
+   private static final class PortKey {
+      final String serviceUrl;
+      final String sessionCookie;
+
+      PortKey(String serviceUrl, String sessionCookie) {
+         this.serviceUrl = serviceUrl;
+         this.sessionCookie = sessionCookie;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof PortKey)) {
+            return false;
+         }
+         PortKey other = (PortKey) o;
+         return equal(serviceUrl, other.serviceUrl) && equal(sessionCookie, other.sessionCookie);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * ((serviceUrl == null) ? 0 : serviceUrl.hashCode())
+               + ((sessionCookie == null) ? 0 : sessionCookie.hashCode());
+      }
+
+      private static boolean equal(Object a, Object b) {
+         return (a == null) ? b == null : a.equals(b);
+      }
+   }
+}
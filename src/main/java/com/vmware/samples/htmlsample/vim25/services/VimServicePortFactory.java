@@ -0,0 +1,23 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.services;
+
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.VimService;
+
+/**
+ * Creates the JAX-WS ports of the vim25 web service.
+ */
+class VimServicePortFactory implements VimPortFactory {
+   private VimService _vimService;
+
+   /**
+    * The VimService is only needed to create ports, and is expensive to create.
+    */
+   @Override
+   public synchronized VimPortType createPort() {
+      if (_vimService == null) {
+         _vimService = new VimService();
+      }
+      return _vimService.getVimPort();
+   }
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.ssl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * SSLSocketFactory of one vcenter endpoint, which counts the TLS connections it
+ * opens and their handshakes.
+ *
+ * A handshake is resumed when its session was created before the socket, i.e.
+ * it was taken from the session cache of the SSLContext, and full otherwise.
+ * The handshake time is measured from the creation of the socket to the end of
+ * its handshake. A call which reuses a keep-alive connection opens no socket
+ * and makes no handshake at all.
+ */
+class HandshakeCountingSocketFactory extends SSLSocketFactory {
+   private static final Log _logger = LogFactory.getLog(HandshakeCountingSocketFactory.class);
+
+   private final String _endpoint;
+   private final SSLSocketFactory _delegate;
+
+   private final AtomicLong _sockets = new AtomicLong();
+   private final AtomicLong _fullHandshakes = new AtomicLong();
+   private final AtomicLong _resumedHandshakes = new AtomicLong();
+   private final AtomicLong _handshakeNanos = new AtomicLong();
+
+   /**
+    * @param endpoint the host and port of the vcenter, for logging.
+    * @param delegate creates the sockets.
+    */
+   HandshakeCountingSocketFactory(String endpoint, SSLSocketFactory delegate) {
+      _endpoint = endpoint;
+      _delegate = delegate;
+   }
+
+   long getSocketCount() {
+      return _sockets.get();
+   }
+
+   long getFullHandshakeCount() {
+      return _fullHandshakes.get();
+   }
+
+   long getResumedHandshakeCount() {
+      return _resumedHandshakes.get();
+   }
+
+   long getHandshakeMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(_handshakeNanos.get());
+   }
+
+   @Override
+   public String[] getDefaultCipherSuites() {
+      return _delegate.getDefaultCipherSuites();
+   }
+
+   @Override
+   public String[] getSupportedCipherSuites() {
+      return _delegate.getSupportedCipherSuites();
+   }
+
+   @Override
+   public Socket createSocket() throws IOException {
+      return count(_delegate.createSocket());
+   }
+
+   @Override
+   public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+         throws IOException {
+      return count(_delegate.createSocket(socket, host, port, autoClose));
+   }
+
+   @Override
+   public Socket createSocket(String host, int port) throws IOException {
+      return count(_delegate.createSocket(host, port));
+   }
+
+   @Override
+   public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+         throws IOException {
+      return count(_delegate.createSocket(host, port, localHost, localPort));
+   }
+
+   @Override
+   public Socket createSocket(InetAddress host, int port) throws IOException {
+      return count(_delegate.createSocket(host, port));
+   }
+
+   @Override
+   public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+         int localPort) throws IOException {
+      return count(_delegate.createSocket(address, port, localAddress, localPort));
+   }
+
+   private Socket count(Socket socket) {
+      _sockets.incrementAndGet();
+      if (socket instanceof SSLSocket) {
+         final long createdNanos = System.nanoTime();
+         final long createdMillis = System.currentTimeMillis();
+         ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+            @Override
+            public void handshakeCompleted(HandshakeCompletedEvent event) {
+               long nanos = System.nanoTime() - createdNanos;
+               _handshakeNanos.addAndGet(nanos);
+               boolean resumed = event.getSession().getCreationTime() < createdMillis;
+               if (resumed) {
+                  _resumedHandshakes.incrementAndGet();
+               } else {
+                  _fullHandshakes.incrementAndGet();
+               }
+               if (_logger.isDebugEnabled()) {
+                  _logger.debug(String.format("%s TLS handshake with %s in %d ms",
+                        resumed ? "Resumed" : "Full", _endpoint,
+                        TimeUnit.NANOSECONDS.toMillis(nanos)));
+               }
+            }
+         });
+      }
+      return socket;
+   }
+}
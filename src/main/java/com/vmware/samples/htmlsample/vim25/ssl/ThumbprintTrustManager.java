@@ -10,30 +10,66 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
- * Trust manager by thumbprint.
+ * Trust manager by thumbprint, with one instance per vcenter endpoint which
+ * only trusts the thumbprints given for this endpoint.
+ *
+ * The SHA-1 thumbprints of the verified certificates are cached, keyed by the
+ * certificate, so that verifying a certificate seen before is a hash lookup
+ * instead of a digest of its encoding.
  */
 public class ThumbprintTrustManager implements javax.net.ssl.X509TrustManager {
    private static final String ERROR_MSG =
          "Server certificate chain is not trusted and thumbprint doesn't match";
    private static final Log _logger = LogFactory.getLog(ThumbprintTrustManager.class);
-   private static final Set<String> _thumbprints = new CopyOnWriteArraySet<>();
+   // Number of certificates whose thumbprint is cached, for all endpoints.
+   private static final int MAX_CACHED_CERTIFICATES = 256;
+
+   // The thumbprints of recently verified certificates, in access order.
+   private static final Map<X509Certificate, Thumbprint> _certificateThumbprints =
+         new LinkedHashMap<X509Certificate, Thumbprint>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<X509Certificate, Thumbprint> eldest) {
+               return size() > MAX_CACHED_CERTIFICATES;
+            }
+         };
+
+   private final Set<Thumbprint> _thumbprints = new CopyOnWriteArraySet<>();
+   // The thumbprints as they were given, so that adding one again is cheap.
+   private final Set<String> _addedThumbprints = new CopyOnWriteArraySet<>();
 
    /**
     * Adds the specified thumbprint to a thumbprint collection of valid thumbprints
     * The thumbprint is added only if not already present.
     *
     * @param thumbprint
-    *        the thumbprint to be added to the collection
+    *        the thumbprint to be added to the collection, in hexadecimal,
+    *        with or without colons
     *
     * @return true if the thumbprint collection did not already contain the specified element
     *
     */
-   public static boolean addThumbprint(String thumbprint) {
-      return _thumbprints.add(thumbprint);
+   public boolean addThumbprint(String thumbprint) {
+      if (_addedThumbprints.contains(thumbprint)) {
+         return false;
+      }
+      byte[] bytes;
+      try {
+         bytes = DatatypeConverter.parseHexBinary(thumbprint.replace(":", ""));
+      } catch (IllegalArgumentException e) {
+         _logger.warn("Invalid thumbprint " + thumbprint);
+         return false;
+      }
+      _addedThumbprints.add(thumbprint);
+      return _thumbprints.add(new Thumbprint(bytes));
    }
 
    @Override
@@ -64,8 +100,8 @@ public class ThumbprintTrustManager implements javax.net.ssl.X509TrustManager {
     * @throws CertificateException
     *         if the thumbrint is not part of the known thumbrints
     */
-   public static void checkThumbprint(X509Certificate cert) throws CertificateException {
-      String thumbprint = getThumbprint(cert);
+   public void checkThumbprint(X509Certificate cert) throws CertificateException {
+      Thumbprint thumbprint = getThumbprint(cert);
 
       if(!_thumbprints.contains(thumbprint)) {
          _logger.error(ERROR_MSG);
@@ -73,16 +109,47 @@ public class ThumbprintTrustManager implements javax.net.ssl.X509TrustManager {
       }
    }
 
-   private static String getThumbprint(X509Certificate cert) throws CertificateException {
+   private static Thumbprint getThumbprint(X509Certificate cert) throws CertificateException {
+      synchronized (_certificateThumbprints) {
+         Thumbprint thumbprint = _certificateThumbprints.get(cert);
+         if (thumbprint != null) {
+            return thumbprint;
+         }
+      }
       try {
          MessageDigest md = MessageDigest.getInstance("SHA-1");
          byte[] certBytes = cert.getEncoded();
-         byte[] bytes = md.digest(certBytes);
-         String thumbprint = DatatypeConverter.printHexBinary(bytes).toLowerCase();
+         Thumbprint thumbprint = new Thumbprint(md.digest(certBytes));
+         synchronized (_certificateThumbprints) {
+            _certificateThumbprints.put(cert, thumbprint);
+         }
          return thumbprint;
       } catch(NoSuchAlgorithmException e) {
          _logger.error(ERROR_MSG);
          throw new CertificateException(ERROR_MSG);
       }
    }
+
+   /**
+    * The bytes of a thumbprint, compared by value.
+    */
+   private static final class Thumbprint {
+      private final byte[] _bytes;
+      private final int _hashCode;
+
+      Thumbprint(byte[] bytes) {
+         _bytes = bytes;
+         _hashCode = Arrays.hashCode(bytes);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         return (o instanceof Thumbprint) && Arrays.equals(_bytes, ((Thumbprint) o)._bytes);
+      }
+
+      @Override
+      public int hashCode() {
+         return _hashCode;
+      }
+   }
 }
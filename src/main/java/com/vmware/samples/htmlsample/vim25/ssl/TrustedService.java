@@ -1,8 +1,12 @@
 /* Copyright (c) 2018 VMware, Inc. All rights reserved. */
 package com.vmware.samples.htmlsample.vim25.ssl;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -12,37 +16,153 @@ import com.vmware.vise.usersession.ServerInfo;
 
 /**
  * Abstract Service which initializes SSLContext
+ *
+ * There is one SSLContext per vcenter endpoint, created on first use and then
+ * shared by all the ports calling this endpoint. Its client session cache lets
+ * new connections resume a TLS session instead of making a full handshake, and
+ * since the JDK only reuses a keep-alive HTTPS connection for the same
+ * SSLSocketFactory, sharing the factory is also what lets repeated SOAP calls
+ * skip the connection setup entirely. The pool of keep-alive connections is the
+ * one of HttpURLConnection, bounded per endpoint by the http.maxConnections
+ * system property.
+ *
+ * Each endpoint also has its own ThumbprintTrustManager, which only trusts the
+ * thumbprints given for this endpoint.
  */
 public class TrustedService {
+   // Number of TLS sessions kept per endpoint, and how long one can be resumed.
+   private static final int SESSION_CACHE_SIZE = 64;
+   private static final int SESSION_TIMEOUT_SECONDS = 3600;
+   private static final int DEFAULT_HTTPS_PORT = 443;
+
+   // The keys are the host and port of a vcenter endpoint.
+   private static final ConcurrentMap<String, HandshakeCountingSocketFactory> _socketFactories =
+         new ConcurrentHashMap<>();
+   private static final ConcurrentMap<String, ThumbprintTrustManager> _trustManagers =
+         new ConcurrentHashMap<>();
+
    /**
     * Using the ThumbprintTrustManager and the ThumbprintHostNameVerifier
-    * creates SSLContext
-    * @return The SocketFactory of the created SSLContext
+    * returns the SSLSocketFactory of a vcenter endpoint, creating its SSLContext
+    * the first time
+    * @param serviceUrl the url of the vcenter endpoint
+    * @return The SocketFactory of the SSLContext of the endpoint
     */
-   public static SSLSocketFactory getSSLSocketFactory()
+   public static SSLSocketFactory getSSLSocketFactory(String serviceUrl)
          throws NoSuchAlgorithmException, KeyManagementException {
-      TrustManager[] trustManagers = new TrustManager[1];
-      TrustManager tm = new ThumbprintTrustManager();
-      trustManagers[0] = tm;
+      String endpoint = getEndpoint(serviceUrl);
+      HandshakeCountingSocketFactory socketFactory = _socketFactories.get(endpoint);
+      if (socketFactory == null) {
+         HandshakeCountingSocketFactory newSocketFactory =
+               new HandshakeCountingSocketFactory(endpoint,
+                     createSSLContext(getTrustManager(endpoint)).getSocketFactory());
+         socketFactory = _socketFactories.putIfAbsent(endpoint, newSocketFactory);
+         if (socketFactory == null) {
+            socketFactory = newSocketFactory;
+         }
+      }
+      return socketFactory;
+   }
 
-      SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+   /**
+    * @return the number of TLS connections opened to the vcenters.
+    */
+   public static long getTlsConnectionCount() {
+      long count = 0;
+      for (HandshakeCountingSocketFactory socketFactory : _socketFactories.values()) {
+         count += socketFactory.getSocketCount();
+      }
+      return count;
+   }
 
-      SSLSessionContext sslsc = sslContext.getServerSessionContext();
-      sslsc.setSessionTimeout(0);
-      sslContext.init(null, trustManagers, null);
+   /**
+    * @return the number of full TLS handshakes with the vcenters.
+    */
+   public static long getFullHandshakeCount() {
+      long count = 0;
+      for (HandshakeCountingSocketFactory socketFactory : _socketFactories.values()) {
+         count += socketFactory.getFullHandshakeCount();
+      }
+      return count;
+   }
 
-      return sslContext.getSocketFactory();
+   /**
+    * @return the number of TLS handshakes which resumed a cached session.
+    */
+   public static long getResumedHandshakeCount() {
+      long count = 0;
+      for (HandshakeCountingSocketFactory socketFactory : _socketFactories.values()) {
+         count += socketFactory.getResumedHandshakeCount();
+      }
+      return count;
+   }
+
+   /**
+    * @return the total time spent in TLS handshakes with the vcenters, in milliseconds.
+    */
+   public static long getHandshakeMillis() {
+      long millis = 0;
+      for (HandshakeCountingSocketFactory socketFactory : _socketFactories.values()) {
+         millis += socketFactory.getHandshakeMillis();
+      }
+      return millis;
    }
 
    /**
     * Gets the thumbprint from the ServerInfo and sets it to the ThumbprintTrustManager
+    * of its endpoint
     * @param sInfo containing thumbprint
     */
    public static void setThumbprint(ServerInfo sInfo){
       String thumbprint = sInfo.thumbprint;
       if (thumbprint != null) {
-         thumbprint = thumbprint.replaceAll(":", "").toLowerCase();
-         ThumbprintTrustManager.addThumbprint(thumbprint);
+         getTrustManager(getEndpoint(sInfo.serviceUrl)).addThumbprint(thumbprint);
+      }
+   }
+
+   private static ThumbprintTrustManager getTrustManager(String endpoint) {
+      ThumbprintTrustManager trustManager = _trustManagers.get(endpoint);
+      if (trustManager == null) {
+         ThumbprintTrustManager newTrustManager = new ThumbprintTrustManager();
+         trustManager = _trustManagers.putIfAbsent(endpoint, newTrustManager);
+         if (trustManager == null) {
+            trustManager = newTrustManager;
+         }
+      }
+      return trustManager;
+   }
+
+   private static SSLContext createSSLContext(ThumbprintTrustManager tm)
+         throws NoSuchAlgorithmException, KeyManagementException {
+      TrustManager[] trustManagers = new TrustManager[1];
+      trustManagers[0] = tm;
+
+      SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+      sslContext.init(null, trustManagers, null);
+
+      SSLSessionContext sslsc = sslContext.getClientSessionContext();
+      sslsc.setSessionCacheSize(SESSION_CACHE_SIZE);
+      sslsc.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
+      return sslContext;
+   }
+
+   /**
+    * @return the host and port of a url, or the url itself if it cannot be parsed.
+    */
+   private static String getEndpoint(String serviceUrl) {
+      if (serviceUrl == null) {
+         return "";
+      }
+      try {
+         URI uri = new URI(serviceUrl);
+         if (uri.getHost() == null) {
+            return serviceUrl;
+         }
+         int port = (uri.getPort() < 0) ? DEFAULT_HTTPS_PORT : uri.getPort();
+         return uri.getHost().toLowerCase() + ":" + port;
+      } catch (URISyntaxException e) {
+         return serviceUrl;
       }
    }
 }
@@ -0,0 +1,186 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.vmware.vim25.HostSystemConnectionState;
+import com.vmware.vim25.ManagedObjectReference;
+
+/**
+ * A synthetic inventory of hosts.
+ *
+ * Host i is the HostSystem "host-i". Its name, number of cores and memory are
+ * derived from i, only its connection state is stored, so that large
+ * inventories take little memory. The connection states change at a fixed
+ * rate, and the recent changes are kept in a log read by WaitForUpdatesEx.
+ */
+class SimulatedInventory {
+   static final String HOST = "HostSystem";
+   static final String NAME = "name";
+   static final String HOST_SUMMARY = "summary.host";
+   static final String HOST_CONNECTION_STATE = "runtime.connectionState";
+   static final String NUM_CPU_CORES = "hardware.cpuInfo.numCpuCores";
+   static final String MEMORY_SIZE = "systemResources.config.memoryAllocation.limit";
+   static final String[] HOST_PROPERTIES = {NAME, HOST_SUMMARY, HOST_CONNECTION_STATE,
+         NUM_CPU_CORES, MEMORY_SIZE};
+
+   private static final String HOST_ID_PREFIX = "host-";
+   private static final HostSystemConnectionState[] STATES =
+         HostSystemConnectionState.values();
+
+   private final int _hostCount;
+   private final byte[] _states;
+   private final Random _random;
+   private final long _changeIntervalNanos;
+   private final int _changesPerInterval;
+   private final int _maxLoggedChanges;
+
+   // The host index of each logged change, version n being the change at
+   // index n - _firstLoggedVersion.
+   private final List<Integer> _changes = new ArrayList<>();
+   private long _firstLoggedVersion = 1;
+   private long _lastChangeNanos = System.nanoTime();
+
+   /**
+    * @param hostCount          the number of hosts.
+    * @param seed               the seed of the generated states and changes.
+    * @param changeIntervalMillis how often the connection states change, 0 for never.
+    * @param changesPerInterval the number of hosts changed every interval.
+    * @param maxLoggedChanges   the number of changes a collector can lag behind
+    *                           before it must resynchronize.
+    */
+   SimulatedInventory(int hostCount, long seed, long changeIntervalMillis,
+         int changesPerInterval, int maxLoggedChanges) {
+      _hostCount = hostCount;
+      _states = new byte[hostCount];
+      _random = new Random(seed);
+      for (int i = 0; i < hostCount; i++) {
+         // Mostly connected hosts.
+         _states[i] = (byte) ((_random.nextInt(20) == 0) ? 1 + _random.nextInt(2) : 0);
+      }
+      _changeIntervalNanos = changeIntervalMillis * 1000000L;
+      _changesPerInterval = changesPerInterval;
+      _maxLoggedChanges = maxLoggedChanges;
+   }
+
+   int getHostCount() {
+      return _hostCount;
+   }
+
+   /**
+    * @return the index of a host, or -1 if there is no such host.
+    */
+   int indexOf(ManagedObjectReference ref) {
+      if (ref == null || !HOST.equals(ref.getType()) || ref.getValue() == null
+            || !ref.getValue().startsWith(HOST_ID_PREFIX)) {
+         return -1;
+      }
+      try {
+         int index = Integer.parseInt(ref.getValue().substring(HOST_ID_PREFIX.length()));
+         return (index >= 0 && index < _hostCount) ? index : -1;
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   static ManagedObjectReference hostRef(int index) {
+      ManagedObjectReference ref = new ManagedObjectReference();
+      ref.setType(HOST);
+      ref.setValue(HOST_ID_PREFIX + index);
+      return ref;
+   }
+
+   /**
+    * @return the value of a host property, or null if the property is unknown.
+    */
+   synchronized Object getProperty(int index, String path) {
+      switch (path) {
+         case NAME:
+            return "esx-" + index + ".sim.local";
+         case HOST_SUMMARY:
+            return hostRef(index);
+         case HOST_CONNECTION_STATE:
+            return STATES[_states[index]];
+         case NUM_CPU_CORES:
+            return (short) (8 << (index % 4));
+         case MEMORY_SIZE:
+            return 65536L << (index % 3);
+         default:
+            return null;
+      }
+   }
+
+   /**
+    * @return the version of the last change.
+    */
+   synchronized long getVersion() {
+      advance();
+      return _firstLoggedVersion + _changes.size() - 1;
+   }
+
+   /**
+    * Reads the hosts changed after a version.
+    *
+    * @param version     the version the caller has.
+    * @param maxChanges  the maximum number of changes returned.
+    * @param hostIndexes receives the index of the changed hosts.
+    * @return the version of the last returned change, or -1 if the changes
+    *         since the given version are no longer logged.
+    */
+   synchronized long getChangesSince(long version, int maxChanges, List<Integer> hostIndexes) {
+      advance();
+      if (version < _firstLoggedVersion - 1) {
+         return -1;
+      }
+      long last = Math.min(_firstLoggedVersion + _changes.size() - 1, version + maxChanges);
+      for (long v = version + 1; v <= last; v++) {
+         hostIndexes.add(_changes.get((int) (v - _firstLoggedVersion)));
+      }
+      return last;
+   }
+
+   /**
+    * @return how long until the next change, in nanoseconds, or Long.MAX_VALUE
+    *         if the states never change.
+    */
+   synchronized long getNanosToNextChange() {
+      if (_changeIntervalNanos <= 0 || _changesPerInterval <= 0 || _hostCount == 0) {
+         return Long.MAX_VALUE;
+      }
+      return Math.max(0, _lastChangeNanos + _changeIntervalNanos - System.nanoTime());
+   }
+
+   /**
+    * Applies the changes of the intervals elapsed since the last call.
+    */
+   private void advance() {
+      if (getNanosToNextChange() == Long.MAX_VALUE) {
+         return;
+      }
+      long intervals = (System.nanoTime() - _lastChangeNanos) / _changeIntervalNanos;
+      if (intervals == 0) {
+         return;
+      }
+      _lastChangeNanos += intervals * _changeIntervalNanos;
+      long changes = intervals * _changesPerInterval;
+      if (changes > _maxLoggedChanges) {
+         // After a long pause, only the changes which can be logged are made,
+         // the collectors have to resynchronize anyway.
+         _firstLoggedVersion += _changes.size() + changes - _maxLoggedChanges;
+         _changes.clear();
+         changes = _maxLoggedChanges;
+      }
+      for (long i = 0; i < changes; i++) {
+         int index = _random.nextInt(_hostCount);
+         _states[index] = (byte) ((_states[index] == 0) ? 1 + _random.nextInt(2) : 0);
+         _changes.add(index);
+      }
+      int excess = _changes.size() - _maxLoggedChanges;
+      if (excess > 0) {
+         _changes.subList(0, excess).clear();
+         _firstLoggedVersion += excess;
+      }
+   }
+}
@@ -0,0 +1,513 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.simulator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.xml.ws.WebServiceException;
+
+import com.vmware.vim25.AboutInfo;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.InvalidArgument;
+import com.vmware.vim25.InvalidCollectorVersion;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidProperty;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.MissingProperty;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RetrieveOptions;
+import com.vmware.vim25.RetrieveResult;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * The calls of one port of the {@link VimSimulator}.
+ *
+ * The port implements the methods the services use, the other VimPortType
+ * methods throw an UnsupportedOperationException. Its request context is only
+ * kept, the endpoint and session it holds do not change the results.
+ */
+class SimulatedPort implements InvocationHandler {
+   private static final String CONTAINER_VIEW = "ContainerView";
+   private static final String PROPERTY_COLLECTOR = "PropertyCollector";
+   private static final String PROPERTY_FILTER = "PropertyFilter";
+   // Separates the inventory version and the position of an initial update in
+   // the version of a truncated update set.
+   private static final char VERSION_SEPARATOR = ':';
+
+   private final VimSimulator _simulator;
+   private final Map<String, Object> _requestContext = new HashMap<>();
+   private final Map<String, Object> _responseContext = new HashMap<>();
+
+   SimulatedPort(VimSimulator simulator) {
+      _simulator = simulator;
+   }
+
+   @Override
+   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (method.getDeclaringClass() == Object.class) {
+         switch (name) {
+            case "equals":
+               return proxy == args[0];
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            default:
+               return "SimulatedPort@" + Integer.toHexString(System.identityHashCode(proxy));
+         }
+      }
+      switch (name) {
+         case "getRequestContext":
+            return _requestContext;
+         case "getResponseContext":
+            return _responseContext;
+         case "getBinding":
+            return null;
+         default:
+            break;
+      }
+
+      _simulator.beginCall(name);
+      switch (name) {
+         case "retrieveServiceContent":
+            return retrieveServiceContent();
+         case "createContainerView":
+            return createContainerView((List<?>) args[2]);
+         case "destroyView":
+            destroy(_simulator.views, (ManagedObjectReference) args[0]);
+            return null;
+         case "retrievePropertiesEx":
+            return retrievePropertiesEx((List<?>) args[1], (RetrieveOptions) args[2]);
+         case "continueRetrievePropertiesEx":
+            return continueRetrievePropertiesEx((String) args[1]);
+         case "cancelRetrievePropertiesEx":
+            if (_simulator.retrievals.remove((String) args[1]) == null) {
+               throw invalidArgument("token");
+            }
+            return null;
+         case "createPropertyCollector":
+            return createPropertyCollector();
+         case "destroyPropertyCollector":
+            destroy(_simulator.collectors, (ManagedObjectReference) args[0]);
+            return null;
+         case "createFilter":
+            return createFilter((ManagedObjectReference) args[0], (PropertyFilterSpec) args[1]);
+         case "destroyPropertyFilter":
+            destroyPropertyFilter((ManagedObjectReference) args[0]);
+            return null;
+         case "waitForUpdatesEx":
+            return waitForUpdatesEx(collector((ManagedObjectReference) args[0]),
+                  (String) args[1], (WaitOptions) args[2]);
+         case "cancelWaitForUpdates":
+            collector((ManagedObjectReference) args[0]).cancel();
+            return null;
+         default:
+            throw new UnsupportedOperationException(name + " is not simulated");
+      }
+   }
+
+   private ServiceContent retrieveServiceContent() {
+      ServiceContent serviceContent = new ServiceContent();
+      serviceContent.setRootFolder(ref("Folder", "group-d1"));
+      serviceContent.setPropertyCollector(ref(PROPERTY_COLLECTOR, "propertyCollector"));
+      serviceContent.setViewManager(ref("ViewManager", "ViewManager"));
+      serviceContent.setSessionManager(ref("SessionManager", "SessionManager"));
+      AboutInfo about = new AboutInfo();
+      about.setFullName("VMware vCenter Server Simulator");
+      about.setApiVersion("6.7");
+      about.setInstanceUuid("00000000-0000-0000-0000-000000000000");
+      serviceContent.setAbout(about);
+      return serviceContent;
+   }
+
+   private ManagedObjectReference createContainerView(List<?> types) {
+      String id = _simulator.nextId("view");
+      _simulator.views.put(id, new View(types.contains(SimulatedInventory.HOST)));
+      return ref(CONTAINER_VIEW, id);
+   }
+
+   private RetrieveResult retrievePropertiesEx(List<?> specs, RetrieveOptions options)
+         throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+      Retrieval retrieval = new Retrieval();
+      for (Object spec : specs) {
+         PropertyFilterSpec filterSpec = (PropertyFilterSpec) spec;
+         collectObjects(filterSpec, retrieval.objects);
+         retrieval.paths.addAll(getPaths(filterSpec));
+      }
+      Integer maxObjects = (options == null) ? null : options.getMaxObjects();
+      retrieval.pageSize = (maxObjects == null || maxObjects <= 0)
+            ? _simulator.getMaxPageSize() : Math.min(maxObjects, _simulator.getMaxPageSize());
+      if (retrieval.objects.isEmpty()) {
+         // As a vcenter, there is no result at all.
+         return null;
+      }
+      return nextPage(_simulator.nextId("token"), retrieval);
+   }
+
+   private RetrieveResult continueRetrievePropertiesEx(String token) throws RuntimeFaultFaultMsg {
+      Retrieval retrieval = (token == null) ? null : _simulator.retrievals.remove(token);
+      if (retrieval == null) {
+         throw invalidArgument("token");
+      }
+      return nextPage(token, retrieval);
+   }
+
+   private RetrieveResult nextPage(String token, Retrieval retrieval) {
+      SimulatedInventory inventory = _simulator.inventory();
+      RetrieveResult result = new RetrieveResult();
+      int end = Math.min(retrieval.objects.size(), retrieval.position + retrieval.pageSize);
+      for (int i = retrieval.position; i < end; i++) {
+         Object object = retrieval.objects.get(i);
+         ObjectContent content = new ObjectContent();
+         if (object instanceof Integer) {
+            int index = (Integer) object;
+            content.setObj(SimulatedInventory.hostRef(index));
+            for (String path : retrieval.paths) {
+               DynamicProperty property = new DynamicProperty();
+               property.setName(path);
+               property.setVal(inventory.getProperty(index, path));
+               content.getPropSet().add(property);
+            }
+         } else {
+            // A host which does not exist, reported as missing.
+            content.setObj((ManagedObjectReference) object);
+            MissingProperty missing = new MissingProperty();
+            missing.setPath("");
+            content.getMissingSet().add(missing);
+         }
+         result.getObjects().add(content);
+      }
+      retrieval.position = end;
+      if (end < retrieval.objects.size()) {
+         result.setToken(token);
+         _simulator.retrievals.put(token, retrieval);
+      }
+      return result;
+   }
+
+   /**
+    * Adds the hosts selected by a filter spec, as host indexes, or as the
+    * reference itself for a missing host.
+    */
+   private void collectObjects(PropertyFilterSpec filterSpec, List<Object> objects)
+         throws RuntimeFaultFaultMsg {
+      SimulatedInventory inventory = _simulator.inventory();
+      for (ObjectSpec objectSpec : filterSpec.getObjectSet()) {
+         ManagedObjectReference obj = objectSpec.getObj();
+         if (obj != null && CONTAINER_VIEW.equals(obj.getType())) {
+            View view = _simulator.views.get(obj.getValue());
+            if (view == null) {
+               throw managedObjectNotFound(obj);
+            }
+            if (view.hosts) {
+               for (int i = 0; i < inventory.getHostCount(); i++) {
+                  objects.add(i);
+               }
+            }
+         } else {
+            int index = inventory.indexOf(obj);
+            if (index >= 0) {
+               objects.add(index);
+            } else if (Boolean.TRUE.equals(filterSpec.isReportMissingObjectsInResults())) {
+               objects.add(obj);
+            } else {
+               throw managedObjectNotFound(obj);
+            }
+         }
+      }
+   }
+
+   private static Set<String> getPaths(PropertyFilterSpec filterSpec)
+         throws InvalidPropertyFaultMsg {
+      Set<String> paths = new LinkedHashSet<>();
+      for (PropertySpec propertySpec : filterSpec.getPropSet()) {
+         if (!SimulatedInventory.HOST.equals(propertySpec.getType())) {
+            continue;
+         }
+         if (Boolean.TRUE.equals(propertySpec.isAll())) {
+            paths.addAll(Arrays.asList(SimulatedInventory.HOST_PROPERTIES));
+         }
+         for (String path : propertySpec.getPathSet()) {
+            if (!Arrays.asList(SimulatedInventory.HOST_PROPERTIES).contains(path)) {
+               InvalidProperty fault = new InvalidProperty();
+               fault.setName(path);
+               throw new InvalidPropertyFaultMsg("Invalid property " + path, fault);
+            }
+            paths.add(path);
+         }
+      }
+      return paths;
+   }
+
+   private ManagedObjectReference createPropertyCollector() {
+      String id = _simulator.nextId("collector");
+      _simulator.collectors.put(id, new Collector(id));
+      return ref(PROPERTY_COLLECTOR, id);
+   }
+
+   private ManagedObjectReference createFilter(ManagedObjectReference collectorRef,
+         PropertyFilterSpec filterSpec) throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+      Collector collector = collector(collectorRef);
+      // Validates the spec, the objects are selected again on every initial update.
+      collectObjects(filterSpec, new ArrayList<Object>());
+      Set<String> paths = getPaths(filterSpec);
+      synchronized (collector) {
+         collector.filterSpec = filterSpec;
+         collector.paths = paths;
+      }
+      return ref(PROPERTY_FILTER, collector.id + "-filter");
+   }
+
+   private void destroyPropertyFilter(ManagedObjectReference filterRef)
+         throws RuntimeFaultFaultMsg {
+      for (Collector collector : _simulator.collectors.values()) {
+         if (filterRef.getValue().equals(collector.id + "-filter")) {
+            synchronized (collector) {
+               collector.filterSpec = null;
+            }
+            return;
+         }
+      }
+      throw managedObjectNotFound(filterRef);
+   }
+
+   /**
+    * Returns the whole host set as ENTER updates for the "" version, and then
+    * the connection state changes as MODIFY updates. A version is the version
+    * of the inventory, followed by the position of the next host while the
+    * initial update set is truncated.
+    */
+   private UpdateSet waitForUpdatesEx(Collector collector, String version, WaitOptions options)
+         throws InvalidCollectorVersionFaultMsg, RuntimeFaultFaultMsg {
+      SimulatedInventory inventory = _simulator.inventory();
+      Integer maxUpdatesOption = (options == null) ? null : options.getMaxObjectUpdates();
+      int maxUpdates = (maxUpdatesOption == null || maxUpdatesOption <= 0)
+            ? Integer.MAX_VALUE : maxUpdatesOption;
+      Integer maxWaitOption = (options == null) ? null : options.getMaxWaitSeconds();
+      long deadline = (maxWaitOption == null) ? Long.MAX_VALUE
+            : System.nanoTime() + TimeUnit.SECONDS.toNanos(maxWaitOption);
+
+      PropertyFilterSpec filterSpec;
+      Set<String> paths;
+      synchronized (collector) {
+         collector.cancelled = false;
+         filterSpec = collector.filterSpec;
+         paths = collector.paths;
+      }
+
+      long baseVersion;
+      int position = -1;
+      try {
+         if (version == null || version.isEmpty()) {
+            baseVersion = inventory.getVersion();
+            position = 0;
+         } else {
+            int separator = version.indexOf(VERSION_SEPARATOR);
+            baseVersion = Long.parseLong((separator < 0) ? version : version.substring(0, separator));
+            if (separator >= 0) {
+               position = Integer.parseInt(version.substring(separator + 1));
+            }
+         }
+      } catch (NumberFormatException e) {
+         throw invalidCollectorVersion(version);
+      }
+      if (filterSpec == null) {
+         // Nothing can change without a filter.
+         while (waitForChange(collector, deadline)) {
+            continue;
+         }
+         return null;
+      }
+
+      UpdateSet updateSet = new UpdateSet();
+      PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+      filterUpdate.setFilter(ref(PROPERTY_FILTER, collector.id + "-filter"));
+      updateSet.getFilterSet().add(filterUpdate);
+
+      if (position >= 0) {
+         List<Object> objects = new ArrayList<>();
+         collectObjects(filterSpec, objects);
+         int end = (int) Math.min(objects.size(), (long) position + maxUpdates);
+         for (int i = position; i < end; i++) {
+            Object object = objects.get(i);
+            if (object instanceof Integer) {
+               filterUpdate.getObjectSet().add(
+                     objectUpdate(ObjectUpdateKind.ENTER, (Integer) object, paths));
+            }
+         }
+         boolean truncated = end < objects.size();
+         updateSet.setTruncated(truncated);
+         updateSet.setVersion(truncated
+               ? baseVersion + String.valueOf(VERSION_SEPARATOR) + end
+               : String.valueOf(baseVersion));
+         return updateSet;
+      }
+
+      while (true) {
+         List<Integer> changed = new ArrayList<>();
+         long lastVersion = inventory.getChangesSince(baseVersion, maxUpdates, changed);
+         if (lastVersion < 0) {
+            throw invalidCollectorVersion(version);
+         }
+         if (!changed.isEmpty()) {
+            Set<Integer> hosts = new LinkedHashSet<>(changed);
+            Set<String> changedPaths = new LinkedHashSet<>();
+            if (paths.contains(SimulatedInventory.HOST_CONNECTION_STATE)) {
+               changedPaths.add(SimulatedInventory.HOST_CONNECTION_STATE);
+            }
+            for (Integer index : hosts) {
+               filterUpdate.getObjectSet().add(
+                     objectUpdate(ObjectUpdateKind.MODIFY, index, changedPaths));
+            }
+            updateSet.setTruncated(lastVersion < inventory.getVersion());
+            updateSet.setVersion(String.valueOf(lastVersion));
+            return updateSet;
+         }
+         if (!waitForChange(collector, deadline)) {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Waits until the next inventory change or the deadline.
+    *
+    * @return false if the deadline passed first
+    */
+   private boolean waitForChange(Collector collector, long deadline) throws RuntimeFaultFaultMsg {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+         return false;
+      }
+      long wait = Math.min(remaining, _simulator.inventory().getNanosToNextChange());
+      try {
+         synchronized (collector) {
+            if (!collector.cancelled) {
+               TimeUnit.NANOSECONDS.timedWait(collector, Math.max(1, wait));
+            }
+            if (collector.cancelled) {
+               collector.cancelled = false;
+               throw new RuntimeFaultFaultMsg("Request canceled", new RuntimeFault());
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new WebServiceException(e);
+      }
+      return wait < remaining;
+   }
+
+   private ObjectUpdate objectUpdate(ObjectUpdateKind kind, int index, Set<String> paths) {
+      SimulatedInventory inventory = _simulator.inventory();
+      ObjectUpdate objectUpdate = new ObjectUpdate();
+      objectUpdate.setKind(kind);
+      objectUpdate.setObj(SimulatedInventory.hostRef(index));
+      for (String path : paths) {
+         PropertyChange change = new PropertyChange();
+         change.setName(path);
+         change.setOp(PropertyChangeOp.ASSIGN);
+         change.setVal(inventory.getProperty(index, path));
+         objectUpdate.getChangeSet().add(change);
+      }
+      return objectUpdate;
+   }
+
+   private Collector collector(ManagedObjectReference ref) throws RuntimeFaultFaultMsg {
+      Collector collector = (ref == null) ? null : _simulator.collectors.get(ref.getValue());
+      if (collector == null) {
+         throw managedObjectNotFound(ref);
+      }
+      return collector;
+   }
+
+   private static void destroy(Map<String, ?> objects, ManagedObjectReference ref)
+         throws RuntimeFaultFaultMsg {
+      if (ref == null || objects.remove(ref.getValue()) == null) {
+         throw managedObjectNotFound(ref);
+      }
+   }
+
+   private static ManagedObjectReference ref(String type, String value) {
+      ManagedObjectReference ref = new ManagedObjectReference();
+      ref.setType(type);
+      ref.setValue(value);
+      return ref;
+   }
+
+   private static RuntimeFaultFaultMsg managedObjectNotFound(ManagedObjectReference ref) {
+      return new RuntimeFaultFaultMsg("The object "
+            + ((ref == null) ? null : ref.getType() + ":" + ref.getValue())
+            + " has already been deleted or has not been completely created",
+            new RuntimeFault());
+   }
+
+   private static RuntimeFaultFaultMsg invalidArgument(String property) {
+      InvalidArgument fault = new InvalidArgument();
+      fault.setInvalidProperty(property);
+      return new RuntimeFaultFaultMsg("A specified parameter was not correct: " + property, fault);
+   }
+
+   private static InvalidCollectorVersionFaultMsg invalidCollectorVersion(String version) {
+      return new InvalidCollectorVersionFaultMsg("Invalid collector version " + version,
+            new InvalidCollectorVersion());
+   }
+
+   /**
+    * A container view, only views of hosts hold objects.
+    */
+   static final class View {
+      final boolean hosts;
+
+      View(boolean hosts) {
+         this.hosts = hosts;
+      }
+   }
+
+   /**
+    * The state of a paged retrieval, between two pages.
+    */
+   static final class Retrieval {
+      final List<Object> objects = new ArrayList<>();
+      final Set<String> paths = new LinkedHashSet<>();
+      int pageSize;
+      int position;
+   }
+
+   /**
+    * A property collector and its filter, guarded by its own lock.
+    */
+   static final class Collector {
+      final String id;
+      PropertyFilterSpec filterSpec;
+      Set<String> paths;
+      boolean cancelled;
+
+      Collector(String id) {
+         this.id = id;
+      }
+
+      synchronized void cancel() {
+         cancelled = true;
+         notifyAll();
+      }
+   }
+}
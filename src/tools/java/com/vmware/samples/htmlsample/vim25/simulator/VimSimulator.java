@@ -0,0 +1,183 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.simulator;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.WebServiceException;
+
+import com.vmware.samples.htmlsample.vim25.services.VimPortFactory;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * An in-process stand-in for a vcenter, used to measure the host retrieval
+ * without a real vcenter.
+ *
+ * It serves a synthetic inventory of hostCount hosts through the part of the
+ * VimPortType interface the services use: RetrieveServiceContent, container
+ * views, RetrievePropertiesEx with paging, and property collectors with
+ * WaitForUpdatesEx. Every call takes latencyMillis plus up to jitterMillis,
+ * and fails with a RuntimeFault with the probability faultRate. A page holds
+ * at most maxPageSize objects, whatever the caller asks for. The connection
+ * state of changesPerInterval hosts changes every changeIntervalMillis.
+ *
+ * It is a VimPortFactory, to be set on the VimObjectServiceImpl, and all its
+ * ports share the same inventory whatever vcenter they are bound to.
+ */
+public class VimSimulator implements VimPortFactory {
+   private int _hostCount = 10000;
+   private long _seed = 1;
+   private long _latencyMillis;
+   private long _jitterMillis;
+   private double _faultRate;
+   private int _maxPageSize = 1000;
+   private long _changeIntervalMillis = 1000;
+   private int _changesPerInterval = 10;
+   private int _maxLoggedChanges = 100000;
+
+   private SimulatedInventory _inventory;
+
+   // The objects created on the simulated vcenter, keyed by the value of their
+   // ManagedObjectReference.
+   final ConcurrentMap<String, SimulatedPort.View> views = new ConcurrentHashMap<>();
+   final ConcurrentMap<String, SimulatedPort.Retrieval> retrievals = new ConcurrentHashMap<>();
+   final ConcurrentMap<String, SimulatedPort.Collector> collectors = new ConcurrentHashMap<>();
+   private final AtomicLong _nextId = new AtomicLong();
+
+   private final AtomicLong _calls = new AtomicLong();
+   private final AtomicLong _faults = new AtomicLong();
+
+   public void setHostCount(int hostCount) {
+      _hostCount = hostCount;
+   }
+
+   public void setSeed(long seed) {
+      _seed = seed;
+   }
+
+   public void setLatencyMillis(long latencyMillis) {
+      _latencyMillis = latencyMillis;
+   }
+
+   public void setJitterMillis(long jitterMillis) {
+      _jitterMillis = jitterMillis;
+   }
+
+   /**
+    * @param faultRate the probability, between 0 and 1, that a call fails.
+    */
+   public void setFaultRate(double faultRate) {
+      _faultRate = faultRate;
+   }
+
+   public void setMaxPageSize(int maxPageSize) {
+      _maxPageSize = maxPageSize;
+   }
+
+   /**
+    * @param changeIntervalMillis how often host connection states change, 0 for never.
+    */
+   public void setChangeIntervalMillis(long changeIntervalMillis) {
+      _changeIntervalMillis = changeIntervalMillis;
+   }
+
+   public void setChangesPerInterval(int changesPerInterval) {
+      _changesPerInterval = changesPerInterval;
+   }
+
+   /**
+    * @param maxLoggedChanges how many changes a collector can lag behind before
+    *                         WaitForUpdatesEx fails with InvalidCollectorVersion.
+    */
+   public void setMaxLoggedChanges(int maxLoggedChanges) {
+      _maxLoggedChanges = maxLoggedChanges;
+   }
+
+   /**
+    * @return a new port of the simulated vcenter, which is also a BindingProvider.
+    */
+   @Override
+   public VimPortType createPort() {
+      return (VimPortType) Proxy.newProxyInstance(VimSimulator.class.getClassLoader(),
+            new Class<?>[] { VimPortType.class, BindingProvider.class },
+            new SimulatedPort(this));
+   }
+
+   /**
+    * @return the number of calls made to the simulated vcenter.
+    */
+   public long getCallCount() {
+      return _calls.get();
+   }
+
+   /**
+    * @return the number of injected faults.
+    */
+   public long getFaultCount() {
+      return _faults.get();
+   }
+
+   /**
+    * @return the number of container views which were not destroyed.
+    */
+   public int getViewCount() {
+      return views.size();
+   }
+
+   /**
+    * @return the number of property collectors which were not destroyed.
+    */
+   public int getCollectorCount() {
+      return collectors.size();
+   }
+
+   /**
+    * @return the number of paged retrievals which were neither completed nor cancelled.
+    */
+   public int getRetrievalCount() {
+      return retrievals.size();
+   }
+
+   synchronized SimulatedInventory inventory() {
+      if (_inventory == null) {
+         _inventory = new SimulatedInventory(_hostCount, _seed, _changeIntervalMillis,
+               _changesPerInterval, _maxLoggedChanges);
+      }
+      return _inventory;
+   }
+
+   int getMaxPageSize() {
+      return _maxPageSize;
+   }
+
+   String nextId(String prefix) {
+      return "session[simulator]" + prefix + "-" + _nextId.incrementAndGet();
+   }
+
+   /**
+    * Simulates the network and server time of a call, and injects faults.
+    */
+   void beginCall(String method) throws RuntimeFaultFaultMsg {
+      _calls.incrementAndGet();
+      long delay = _latencyMillis
+            + ((_jitterMillis > 0) ? ThreadLocalRandom.current().nextLong(_jitterMillis + 1) : 0);
+      if (delay > 0) {
+         try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebServiceException(e);
+         }
+      }
+      if (_faultRate > 0 && ThreadLocalRandom.current().nextDouble() < _faultRate) {
+         _faults.incrementAndGet();
+         throw new RuntimeFaultFaultMsg("Simulated fault of " + method, new RuntimeFault());
+      }
+   }
+}
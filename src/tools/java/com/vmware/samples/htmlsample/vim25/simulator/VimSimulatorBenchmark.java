@@ -0,0 +1,261 @@
+/* Copyright (c) 2018 VMware, Inc. All rights reserved. */
+package com.vmware.samples.htmlsample.vim25.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vmware.samples.htmlsample.FakeChassisStore;
+import com.vmware.samples.htmlsample.model.Chassis;
+import com.vmware.samples.htmlsample.services.ChassisServiceImpl;
+import com.vmware.samples.htmlsample.services.HostServiceImpl;
+import com.vmware.samples.htmlsample.vim25.services.HostObjectId;
+import com.vmware.samples.htmlsample.vim25.services.VimObjectServiceImpl;
+import com.vmware.vise.usersession.ServerInfo;
+import com.vmware.vise.usersession.UserSession;
+import com.vmware.vise.usersession.UserSessionService;
+
+/**
+ * Measures the host retrieval against a {@link VimSimulator}.
+ *
+ * The arguments are name=value pairs, all optional:
+ * <ul>
+ * <li>mode: "all" retrieves all hosts of a vcenter, "ids" retrieves idCount
+ *     hosts by id, and "hosts" runs HostServiceImpl.getRelatedHosts for a
+ *     chassis bound to idCount hosts of each vcenter. Default "all".</li>
+ * <li>hosts, latencyMillis, jitterMillis, faultRate, maxPageSize,
+ *     changeIntervalMillis, changesPerInterval: the simulator settings.</li>
+ * <li>servers: number of vcenters, each with its own session. Default 1.</li>
+ * <li>maxObjects, mirror: the VimObjectServiceImpl settings.</li>
+ * <li>threads, iterations, warmup: the calls made. Defaults 4, 100, 10.</li>
+ * <li>idCount: the hosts retrieved by id. Default 100.</li>
+ * </ul>
+ */
+public class VimSimulatorBenchmark {
+   private final Map<String, String> _options;
+   // Set in the "hosts" mode.
+   private HostServiceImpl _hostService;
+
+   private VimSimulatorBenchmark(Map<String, String> options) {
+      _options = options;
+   }
+
+   public static void main(String[] args) throws Exception {
+      Map<String, String> options = new HashMap<>();
+      for (String arg : args) {
+         int separator = arg.indexOf('=');
+         if (separator < 0) {
+            throw new IllegalArgumentException("Expected name=value: " + arg);
+         }
+         options.put(arg.substring(0, separator), arg.substring(separator + 1));
+      }
+      new VimSimulatorBenchmark(options).run();
+   }
+
+   private void run() throws Exception {
+      VimSimulator simulator = new VimSimulator();
+      simulator.setHostCount(intOption("hosts", 10000));
+      simulator.setLatencyMillis(intOption("latencyMillis", 0));
+      simulator.setJitterMillis(intOption("jitterMillis", 0));
+      simulator.setFaultRate(Double.parseDouble(option("faultRate", "0")));
+      simulator.setMaxPageSize(intOption("maxPageSize", 1000));
+      simulator.setChangeIntervalMillis(intOption("changeIntervalMillis", 1000));
+      simulator.setChangesPerInterval(intOption("changesPerInterval", 10));
+
+      final VimObjectServiceImpl vimObjectService = new VimObjectServiceImpl();
+      vimObjectService.setVimPortFactory(simulator);
+      vimObjectService.setMaxObjects(intOption("maxObjects", 1000));
+      vimObjectService.setMirrorHosts(Boolean.parseBoolean(option("mirror", "false")));
+
+      final List<ServerInfo> servers = new ArrayList<>();
+      for (int i = 0; i < intOption("servers", 1); i++) {
+         ServerInfo serverInfo = new ServerInfo();
+         serverInfo.name = "vcenter-" + i;
+         serverInfo.serviceGuid = "00000000-0000-0000-0000-00000000000" + i;
+         serverInfo.serviceUrl = "https://vcenter-" + i + ".sim.local/sdk";
+         serverInfo.sessionCookie = "session-" + i;
+         servers.add(serverInfo);
+      }
+      final List<String> hostIds = sampleHostIds(intOption("idCount", 100),
+            intOption("hosts", 10000));
+
+      String mode = option("mode", "all");
+      Callable<Integer> call;
+      switch (mode) {
+         case "all":
+            call = new Callable<Integer>() {
+               private final AtomicInteger _next = new AtomicInteger();
+
+               @Override
+               public Integer call() {
+                  ServerInfo serverInfo = servers.get(_next.getAndIncrement() % servers.size());
+                  return vimObjectService.retrieveHosts(serverInfo).size();
+               }
+            };
+            break;
+         case "ids":
+            call = new Callable<Integer>() {
+               private final AtomicInteger _next = new AtomicInteger();
+
+               @Override
+               public Integer call() {
+                  ServerInfo serverInfo = servers.get(_next.getAndIncrement() % servers.size());
+                  return vimObjectService.retrieveHosts(serverInfo, hostIds).size();
+               }
+            };
+            break;
+         case "hosts":
+            call = createHostServiceCall(vimObjectService, servers, hostIds);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown mode " + mode);
+      }
+
+      int threads = intOption("threads", 4);
+      measure("warmup", call, threads, intOption("warmup", 10));
+      long callsBefore = simulator.getCallCount();
+      measure(mode, call, threads, intOption("iterations", 100));
+      System.out.println(String.format(
+            "simulator: %d calls, %d faults, %d open views, %d open collectors, %d open retrievals",
+            simulator.getCallCount() - callsBefore, simulator.getFaultCount(),
+            simulator.getViewCount(), simulator.getCollectorCount(),
+            simulator.getRetrievalCount()));
+      System.out.println(String.format("ServiceContent cache: %d hits, %d misses",
+            vimObjectService.getServiceContentHits(), vimObjectService.getServiceContentMisses()));
+      if (_hostService != null) {
+         System.out.println(String.format("HostServiceImpl: %d shared vCenter queries",
+               _hostService.getSharedQueryCount()));
+      }
+   }
+
+   /**
+    * Returns a call of HostServiceImpl.getRelatedHosts for a chassis bound to
+    * the given hosts of every vcenter.
+    */
+   private Callable<Integer> createHostServiceCall(VimObjectServiceImpl vimObjectService,
+         List<ServerInfo> servers, List<String> hostIds) {
+      final UserSession userSession = new UserSession();
+      userSession.clientId = "benchmark";
+      userSession.serversInfo = servers.toArray(new ServerInfo[servers.size()]);
+
+      FakeChassisStore fakeStore = new FakeChassisStore();
+      fakeStore.init();
+      ChassisServiceImpl chassisService = new ChassisServiceImpl(fakeStore);
+      final Chassis chassis = new Chassis();
+      chassis.name = "benchmark";
+      chassis.serverType = "simulated";
+      chassis.id = chassisService.create(chassis);
+      List<String> objectIds = new ArrayList<>();
+      for (ServerInfo serverInfo : servers) {
+         for (String hostId : hostIds) {
+            objectIds.add(new HostObjectId(hostId, serverInfo.serviceGuid).toString());
+         }
+      }
+      chassisService.setRelatedHosts(chassis.id, objectIds);
+
+      final HostServiceImpl hostService = new HostServiceImpl(new UserSessionService() {
+         @Override
+         public UserSession getUserSession() {
+            return userSession;
+         }
+      }, vimObjectService, chassisService);
+      hostService.setMaxConcurrentServers(Math.max(servers.size(), 1) * intOption("threads", 4));
+      hostService.init();
+      _hostService = hostService;
+      return new Callable<Integer>() {
+         @Override
+         public Integer call() {
+            return hostService.getRelatedHosts(chassis).hosts.size();
+         }
+      };
+   }
+
+   /**
+    * Runs the call the given number of times on the given number of threads,
+    * and prints the throughput and the latency percentiles.
+    */
+   private static void measure(String name, final Callable<Integer> call, int threads,
+         int iterations) throws InterruptedException {
+      if (iterations <= 0) {
+         return;
+      }
+      final long[] latencies = new long[iterations];
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicLong objects = new AtomicLong();
+      final AtomicInteger errors = new AtomicInteger();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      List<Callable<Void>> workers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+         workers.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+               int i;
+               while ((i = next.getAndIncrement()) < latencies.length) {
+                  long start = System.nanoTime();
+                  try {
+                     objects.addAndGet(call.call());
+                  } catch (Exception e) {
+                     errors.incrementAndGet();
+                  }
+                  latencies[i] = System.nanoTime() - start;
+               }
+               return null;
+            }
+         });
+      }
+
+      long start = System.nanoTime();
+      for (Future<Void> future : executor.invokeAll(workers)) {
+         try {
+            future.get();
+         } catch (Exception e) {
+            errors.incrementAndGet();
+         }
+      }
+      long elapsed = System.nanoTime() - start;
+      executor.shutdown();
+
+      Arrays.sort(latencies);
+      double seconds = elapsed / 1e9;
+      System.out.println(String.format(
+            "%s: %d calls in %.2f s, %.1f calls/s, %.0f hosts/s, %d errors,"
+            + " latency ms p50 %.2f p90 %.2f p99 %.2f max %.2f",
+            name, iterations, seconds, iterations / seconds, objects.get() / seconds,
+            errors.get(), millis(latencies, 0.50), millis(latencies, 0.90),
+            millis(latencies, 0.99), latencies[latencies.length - 1] / 1e6));
+   }
+
+   private static double millis(long[] sortedLatencies, double percentile) {
+      int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+      return sortedLatencies[Math.max(0, index)] / 1e6;
+   }
+
+   private static List<String> sampleHostIds(int count, int hostCount) {
+      List<String> hostIds = new ArrayList<>();
+      Random random = new Random(42);
+      for (int i = 0; i < count; i++) {
+         hostIds.add("host-" + random.nextInt(Math.max(hostCount, 1)));
+      }
+      return Collections.unmodifiableList(hostIds);
+   }
+
+   private String option(String name, String defaultValue) {
+      String value = _options.get(name);
+      return (value == null) ? defaultValue : value;
+   }
+
+   private int intOption(String name, int defaultValue) {
+      return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+   }
+}